@@ -1,6 +1,5 @@
 package tech.yaog.vlcplayer;
 
-import android.content.res.AssetManager;
 import android.net.Uri;
 import android.os.Environment;
 import android.os.Handler;
@@ -9,12 +8,9 @@ import android.os.Bundle;
 import androidx.appcompat.app.AppCompatActivity;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.List;
 
+import tech.yaog.widgets.MediaStaging;
 import tech.yaog.widgets.VlcVideoView;
 
 public class MainActivity extends AppCompatActivity {
@@ -24,6 +20,7 @@ public class MainActivity extends AppCompatActivity {
 //    private VlcVideoView videoView3;
     private String videoFilePath;
     private String videoFilePath2;
+    private boolean started;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -36,43 +33,22 @@ public class MainActivity extends AppCompatActivity {
 //        videoView.init("-vvv");
 
         File dir = getExternalFilesDir(Environment.DIRECTORY_MOVIES);
-        if (dir != null) {
-            if (!dir.exists()) {
-                dir.mkdirs();
-            }
-            AssetManager assetManager = getAssets();
-            List<String> videoExts = new ArrayList<>();
-            videoExts.add("swf");
-            videoExts.add("mp4");
-            videoExts.add("avi");
-            videoExts.add("flv");
-            try {
-                String[] files = assetManager.list("");
-                for (String file : files) {
-                    String[] parts = file.split("\\.");
-                    if (videoExts.contains(parts[parts.length-1])) {
-                        File destFile = new File(dir.getAbsolutePath()+File.separator+file);
-                        if (!destFile.exists()) {
-                            FileOutputStream fos = new FileOutputStream(destFile);
-                            InputStream is = assetManager.open(file);
-                            byte[] buffer = new byte[1024*1024];
-                            int read;
-                            while ((read = is.read(buffer)) >= 0) {
-                                fos.write(buffer, 0, read);
-                            }
-                            is.close();
-                            fos.close();
-                        }
-                    }
+        MediaStaging staging = dir != null ? new MediaStaging(this, dir) : new MediaStaging(this);
+        staging.stageAsync("demo.mp4", new MediaStaging.Callback() {
+            @Override
+            public void onStaged(String assetName, File file) {
+                videoFilePath2 = file.getAbsolutePath();
+                videoView.setVideoPath(videoFilePath2);
+                if (started) {
+                    videoView.start();
                 }
-            } catch (IOException e) {
-                e.printStackTrace();
             }
-            videoFilePath = dir.getAbsolutePath()+File.separator+"demo.flv";
-            videoFilePath2 = dir.getAbsolutePath()+File.separator+"demo.mp4";
-        }
 
-        videoView.setVideoPath(videoFilePath2);
+            @Override
+            public void onError(String assetName, IOException e) {
+                e.printStackTrace();
+            }
+        });
 //        videoView2.setVideoPath(videoFilePath);
 //        videoView3.setVideoPath(videoFilePath2);
     }
@@ -80,32 +56,29 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onStart() {
         super.onStart();
-        videoView.start();
+        started = true;
+        // 不论在后台时是否还在播放，回到前台都要恢复画面
+        videoView.setAudioOnly(false);
+        if (!videoView.isPlaying()) {
+            videoView.start();
+        }
 //        videoView2.start();
 //        videoView3.start();
     }
 
     @Override
     protected void onStop() {
-        videoView.stopPlayback();
+        started = false;
+        // 切到后台后继续播放声音
+        videoView.setAudioOnly(true);
 //        videoView2.stopPlayback();
 //        videoView3.stopPlayback();
         super.onStop();
     }
 
     @Override
-    protected void onResume() {
-        super.onResume();
-        videoView.resume();
-//        videoView2.resume();
-//        videoView3.resume();
-    }
-
-    @Override
-    protected void onPause() {
-        videoView.pause();
-//        videoView2.pause();
-//        videoView3.pause();
-        super.onPause();
+    protected void onDestroy() {
+        videoView.stopPlayback();
+        super.onDestroy();
     }
 }
@@ -0,0 +1,112 @@
+package tech.yaog.widgets;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TimeChanged / Buffering 事件连发时 {@link ProgressDispatcher} 的开销.
+ * 时钟每个事件前进 16ms（约 60fps），interval 为 0 时每个事件都回调，250 时大部分事件被合并.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ProgressDispatchBenchmark {
+
+    private static final int BURST = 100;
+    private static final long FRAME = 16;
+
+    @Param({"0", "250"})
+    public long interval;
+
+    private ProgressDispatcher dispatcher;
+    private ManualScheduler scheduler;
+    private long time;
+
+    @Setup
+    public void setup(final Blackhole blackhole) {
+        scheduler = new ManualScheduler();
+        dispatcher = new ProgressDispatcher(new PlaybackMetrics(), scheduler);
+        dispatcher.configure(interval, 0, 1f);
+        dispatcher.setListener(new ProgressDispatcher.Listener() {
+            @Override
+            public void onBuffering(int percent) {
+                blackhole.consume(percent);
+            }
+
+            @Override
+            public void onPosition(int msec) {
+                blackhole.consume(msec);
+            }
+        });
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void timeChangedBurst() {
+        for (int i = 0; i < BURST; i++) {
+            scheduler.advance(FRAME);
+            time += FRAME;
+            dispatcher.onTimeChanged(time, PlayerState.Playing);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void bufferingBurst() {
+        for (int i = 0; i < BURST; i++) {
+            scheduler.advance(FRAME);
+            dispatcher.onBuffering(i, PlayerState.Buffering);
+        }
+    }
+
+    /**
+     * 手动推进的时钟，到期的延时任务在推进时同步执行
+     */
+    private static class ManualScheduler implements ProgressDispatcher.Scheduler {
+        private long now;
+        private Runnable task;
+        private long due;
+
+        void advance(long delta) {
+            now += delta;
+            if (task != null && now >= due) {
+                Runnable run = task;
+                task = null;
+                run.run();
+            }
+        }
+
+        @Override
+        public long now() {
+            return now;
+        }
+
+        @Override
+        public long realtime() {
+            return now;
+        }
+
+        @Override
+        public void schedule(Runnable task, long delay) {
+            this.task = task;
+            this.due = now + delay;
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            if (this.task == task) {
+                this.task = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package tech.yaog.widgets;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import tech.yaog.utils.statemachine.Event;
+import tech.yaog.utils.statemachine.StateMachine;
+
+/**
+ * 状态机迁移：一次完整的 播放 → 暂停 → 继续 → 停止 循环.
+ * 与 {@link VlcVideoView} 一样每次都新建 {@link Event}，因此分配速率也计入结果.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StateMachineBenchmark {
+
+    private StateMachine<PlayerState, PlayerEvent> stateMachine;
+    private CountingActions actions;
+
+    @Setup
+    public void setup() {
+        actions = new CountingActions();
+        stateMachine = PlayerStateGraph.create(actions);
+        stateMachine.event(new Event<>(PlayerEvent.Attach));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(6)
+    public void lifecycle(Blackhole blackhole) {
+        stateMachine.event(new Event<>(PlayerEvent.AskForPlay));
+        stateMachine.event(new Event<>(PlayerEvent.Play));
+        stateMachine.event(new Event<>(PlayerEvent.Pause));
+        stateMachine.event(new Event<>(PlayerEvent.Resume));
+        stateMachine.event(new Event<>(PlayerEvent.Stop));
+        stateMachine.event(new Event<>(PlayerEvent.Stopped));
+        blackhole.consume(actions.state);
+    }
+
+    private static class CountingActions implements PlayerStateGraph.Actions {
+        private PlayerState state;
+        private int count;
+
+        @Override
+        public void onStateEntered(PlayerState state) {
+            this.state = state;
+        }
+
+        @Override
+        public void openMedia() {
+            count++;
+        }
+
+        @Override
+        public void applySubtitle() {
+            count++;
+        }
+
+        @Override
+        public void onStarted() {
+            count++;
+        }
+
+        @Override
+        public void onEnded() {
+            count++;
+        }
+
+        @Override
+        public void onStopped() {
+            count++;
+        }
+
+        @Override
+        public void onError() {
+            count++;
+        }
+
+        @Override
+        public void stopPlayer() {
+            count++;
+        }
+
+        @Override
+        public void pausePlayer() {
+            count++;
+        }
+
+        @Override
+        public void resumePlayer() {
+            count++;
+        }
+    }
+}
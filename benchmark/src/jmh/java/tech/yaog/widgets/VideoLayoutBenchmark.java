@@ -0,0 +1,42 @@
+package tech.yaog.widgets;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * onNewLayout 中的宽高比计算，覆盖常见分辨率与各测量模式组合
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VideoLayoutBenchmark {
+
+    private static final int[][] VIDEO_SIZES = {
+            {640, 360}, {1280, 720}, {1920, 1080}, {3840, 2160}, {720, 576}, {1080, 1920}
+    };
+    private static final int[] MODES = {VideoLayout.UNSPECIFIED, VideoLayout.EXACTLY, VideoLayout.AT_MOST};
+
+    private final VideoLayout layout = new VideoLayout();
+
+    @Benchmark
+    @OperationsPerInvocation(54)
+    public void measure(Blackhole blackhole) {
+        for (int[] size : VIDEO_SIZES) {
+            for (int widthMode : MODES) {
+                for (int heightMode : MODES) {
+                    layout.measure(size[0], size[1], 1080, 607, widthMode, heightMode);
+                    blackhole.consume(layout.width);
+                    blackhole.consume(layout.height);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package org.videolan.libvlc;
+
+/**
+ * 基准测试用的 libvlc 替身，只包含 vlc-videoview 纯 Java 部分用到的成员
+ */
+public class Media {
+
+    public boolean isReleased() {
+        return false;
+    }
+
+    public boolean retain() {
+        return true;
+    }
+
+    public void release() {
+    }
+
+    public Stats getStats() {
+        return null;
+    }
+
+    public static class Stats {
+        public int readBytes;
+        public float inputBitrate;
+        public float demuxBitrate;
+        public int decodedVideo;
+        public int displayedPictures;
+        public int lostPictures;
+    }
+}
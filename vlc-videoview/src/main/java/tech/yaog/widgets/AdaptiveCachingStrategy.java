@@ -0,0 +1,128 @@
+package tech.yaog.widgets;
+
+import android.net.Uri;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 默认的缓存时长策略.
+ * 按主机分别记录缓存时长，初始值与 LibVLC 默认值相同：
+ * <ul>
+ * <li>发生卡顿时加倍</li>
+ * <li>读取速率连续几次跟不上码率（缓冲在消耗）时增加一半</li>
+ * <li>连续一段时间播放平稳时减少 10%，逐步回到够用的最小值</li>
+ * </ul>
+ * 调整结果在下一次新建媒体时生效.
+ */
+public class AdaptiveCachingStrategy implements CachingStrategy {
+
+    /**
+     * 网络媒体的初始缓存时长(ms)
+     */
+    public static final int DEFAULT_NETWORK_CACHING = 1000;
+    /**
+     * 本地文件的缓存时长(ms)
+     */
+    public static final int DEFAULT_FILE_CACHING = 300;
+
+    /**
+     * 读取速率低于码率的这个比例时视为跟不上
+     */
+    private static final float LAGGING_RATIO = 0.8f;
+    /**
+     * 连续跟不上多少次采样后增加缓存
+     */
+    private static final int LAGGING_SAMPLES = 3;
+    /**
+     * 连续平稳多少次采样后减少缓存
+     */
+    private static final int STABLE_SAMPLES = 30;
+
+    private final int minCaching;
+    private final int maxCaching;
+    private final Map<String, Host> hosts = new HashMap<>();
+
+    public AdaptiveCachingStrategy() {
+        this(300, 10000);
+    }
+
+    /**
+     * @param minCaching 网络媒体的最小缓存时长(ms)
+     * @param maxCaching 网络媒体的最大缓存时长(ms)
+     */
+    public AdaptiveCachingStrategy(int minCaching, int maxCaching) {
+        this.minCaching = minCaching;
+        this.maxCaching = Math.max(minCaching, maxCaching);
+    }
+
+    @Override
+    public synchronized int getCaching(Uri uri) {
+        if (!isNetwork(uri)) {
+            return DEFAULT_FILE_CACHING;
+        }
+        Host host = hosts.get(uri.getHost());
+        return host != null ? host.caching : clamp(DEFAULT_NETWORK_CACHING);
+    }
+
+    @Override
+    public synchronized void onThroughput(Uri uri, long readRate, long bitrate) {
+        if (bitrate <= 0 || !isNetwork(uri)) {
+            return;
+        }
+        Host host = host(uri);
+        if (readRate < bitrate * LAGGING_RATIO) {
+            host.stable = 0;
+            if (++host.lagging >= LAGGING_SAMPLES) {
+                host.lagging = 0;
+                host.caching = clamp(host.caching * 3 / 2);
+            }
+        } else {
+            host.lagging = 0;
+            if (++host.stable >= STABLE_SAMPLES) {
+                host.stable = 0;
+                host.caching = clamp(host.caching * 9 / 10);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void onRebuffer(Uri uri, long duration) {
+        if (!isNetwork(uri)) {
+            return;
+        }
+        Host host = host(uri);
+        host.caching = clamp(host.caching * 2);
+        host.lagging = 0;
+        host.stable = 0;
+    }
+
+    private Host host(Uri uri) {
+        String name = uri.getHost();
+        Host host = hosts.get(name);
+        if (host == null) {
+            host = new Host(clamp(DEFAULT_NETWORK_CACHING));
+            hosts.put(name, host);
+        }
+        return host;
+    }
+
+    private int clamp(int caching) {
+        return Math.max(minCaching, Math.min(maxCaching, caching));
+    }
+
+    private static boolean isNetwork(Uri uri) {
+        String scheme = uri.getScheme();
+        return scheme != null && !scheme.equals("file") && !scheme.equals("content");
+    }
+
+    private static class Host {
+        private int caching;
+        private int lagging;
+        private int stable;
+
+        private Host(int caching) {
+            this.caching = caching;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package tech.yaog.widgets;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * 已缓存的字节区间集合.
+ * 区间为左闭右开 [start, end)，按起点有序保存，相交或相邻的区间自动合并.
+ * 非线程安全，由调用方加锁.
+ */
+final class ByteRanges {
+
+    private long[] starts = new long[4];
+    private long[] ends = new long[4];
+    private int count;
+
+    /**
+     * 添加区间
+     *
+     * @param start 起点（含）
+     * @param end   终点（不含）
+     */
+    void add(long start, long end) {
+        if (end <= start) {
+            return;
+        }
+        // 第一个可合并的区间（终点不早于新区间起点）
+        int first = 0;
+        while (first < count && ends[first] < start) {
+            first++;
+        }
+        // 最后一个可合并区间之后的位置（起点晚于新区间终点）
+        int last = first;
+        while (last < count && starts[last] <= end) {
+            last++;
+        }
+        if (first < last) {
+            start = Math.min(start, starts[first]);
+            end = Math.max(end, ends[last - 1]);
+        }
+        int newCount = count - (last - first) + 1;
+        if (newCount > starts.length) {
+            long[] newStarts = new long[Math.max(newCount, starts.length * 2)];
+            long[] newEnds = new long[newStarts.length];
+            System.arraycopy(starts, 0, newStarts, 0, count);
+            System.arraycopy(ends, 0, newEnds, 0, count);
+            starts = newStarts;
+            ends = newEnds;
+        }
+        System.arraycopy(starts, last, starts, first + 1, count - last);
+        System.arraycopy(ends, last, ends, first + 1, count - last);
+        starts[first] = start;
+        ends[first] = end;
+        count = newCount;
+    }
+
+    /**
+     * 从指定位置开始连续缓存到哪里
+     *
+     * @param position 位置
+     * @return 包含该位置的区间终点；该位置未缓存时返回 position
+     */
+    long cachedEnd(long position) {
+        int index = find(position);
+        if (index >= 0 && position < ends[index]) {
+            return ends[index];
+        }
+        return position;
+    }
+
+    /**
+     * 指定位置之后的下一个已缓存区间起点
+     *
+     * @param position 位置
+     * @return 下一个区间起点，没有时返回 {@link Long#MAX_VALUE}
+     */
+    long nextStart(long position) {
+        int index = find(position) + 1;
+        return index < count ? starts[index] : Long.MAX_VALUE;
+    }
+
+    /**
+     * 已缓存的总字节数
+     *
+     * @return 总字节数
+     */
+    long size() {
+        long size = 0;
+        for (int i = 0; i < count; i++) {
+            size += ends[i] - starts[i];
+        }
+        return size;
+    }
+
+    void clear() {
+        count = 0;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            out.writeLong(starts[i]);
+            out.writeLong(ends[i]);
+        }
+    }
+
+    void read(DataInputStream in) throws IOException {
+        clear();
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            long start = in.readLong();
+            add(start, in.readLong());
+        }
+    }
+
+    /**
+     * @return 起点不晚于 position 的最后一个区间，没有时返回 -1
+     */
+    private int find(long position) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] <= position) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+}
@@ -0,0 +1,37 @@
+package tech.yaog.widgets;
+
+import android.net.Uri;
+
+/**
+ * 缓存时长策略.
+ * {@link VlcVideoView} 每次新建媒体时询问缓存时长，设置为该媒体的 {@code :network-caching} 或 {@code :file-caching}，
+ * 播放过程中把读取速率和卡顿报告给策略，供下一次决策使用.
+ * 同一个策略可以被多个控件共享，实现需要线程安全.
+ */
+public interface CachingStrategy {
+
+    /**
+     * 为即将打开的媒体选择缓存时长
+     *
+     * @param uri 视频地址
+     * @return 缓存时长(ms)，0 表示不设置，使用 LibVLC 的全局值
+     */
+    int getCaching(Uri uri);
+
+    /**
+     * 播放期间定期调用（后台线程）
+     *
+     * @param uri      视频地址
+     * @param readRate 最近一段时间的读取速率(bit/s)
+     * @param bitrate  媒体码率(bit/s)
+     */
+    void onThroughput(Uri uri, long readRate, long bitrate);
+
+    /**
+     * 播放中发生了一次卡顿
+     *
+     * @param uri      视频地址
+     * @param duration 卡顿时长(ms)
+     */
+    void onRebuffer(Uri uri, long duration);
+}
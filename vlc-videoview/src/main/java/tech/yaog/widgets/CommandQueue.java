@@ -0,0 +1,89 @@
+package tech.yaog.widgets;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 多生产者、单消费者的命令队列.
+ * 任意线程提交的命令按提交顺序在指定 Looper 的线程上执行，入队不加锁（{@link ConcurrentLinkedQueue}）.
+ * 调用方先用 {@link #canExecuteNow()} 判断：已在消费线程且没有更早的命令排队时直接执行，不分配对象；否则 {@link #enqueue(Runnable)}.
+ */
+final class CommandQueue {
+
+    private static final String TAG = CommandQueue.class.getName();
+
+    private final Looper looper;
+    private final Handler handler;
+    private final ConcurrentLinkedQueue<Runnable> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    /**
+     * 只在消费线程访问
+     */
+    private boolean draining;
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            scheduled.set(false);
+            draining = true;
+            try {
+                Runnable command;
+                while ((command = queue.poll()) != null) {
+                    // 一个命令出错不影响后面的命令
+                    try {
+                        command.run();
+                    } catch (RuntimeException e) {
+                        Log.e(TAG, "command failed", e);
+                    }
+                }
+            } finally {
+                draining = false;
+            }
+        }
+    };
+
+    /**
+     * @param looper 消费线程的 Looper
+     */
+    CommandQueue(Looper looper) {
+        this.looper = looper;
+        this.handler = new Handler(looper);
+    }
+
+    /**
+     * 是否可以直接执行.
+     * 执行队列中的命令时，命令内部的调用也直接执行，保持嵌套调用的顺序
+     *
+     * @return 在消费线程上，且正在执行队列或队列为空
+     */
+    boolean canExecuteNow() {
+        return Looper.myLooper() == looper && (draining || queue.isEmpty());
+    }
+
+    /**
+     * 在消费线程上立即执行已排队的命令.
+     * 用于必须同步完成的回调（如视图 detach）之前，让更早提交的命令先作用于回调前的状态；其他线程或执行队列中调用时无操作
+     */
+    void flush() {
+        if (Looper.myLooper() != looper || draining) {
+            return;
+        }
+        handler.removeCallbacks(drain);
+        drain.run();
+    }
+
+    /**
+     * 提交命令，之后在消费线程上执行
+     *
+     * @param command 命令
+     */
+    void enqueue(Runnable command) {
+        queue.offer(command);
+        if (scheduled.compareAndSet(false, true)) {
+            handler.post(drain);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package tech.yaog.widgets;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Build;
+
+import org.videolan.libvlc.Media;
+
+/**
+ * 记录硬件解码失败的视频格式，持久化在 SharedPreferences 中.
+ * 格式按 (编码, 分辨率, profile, 设备) 区分；打开媒体前还不知道格式，所以同时记下出错过的地址，
+ * 同一地址直接使用软件解码，其他地址在轨道出现后对照格式判断.
+ * 只在主线程调用.
+ */
+final class DecoderCapabilities {
+
+    private static final String PREFERENCES = "tech.yaog.widgets.decoders";
+    private static final String FORMAT_PREFIX = "format:";
+    private static final String URI_PREFIX = "uri:";
+    /**
+     * 记录的地址数上限，超出后清空地址记录（格式记录保留，地址可以重新对照得到）
+     */
+    private static final int MAX_URIS = 256;
+
+    private final SharedPreferences preferences;
+    private int uriCount = -1;
+
+    /**
+     * @param context 上下文
+     */
+    DecoderCapabilities(Context context) {
+        Context application = context.getApplicationContext();
+        this.preferences = (application != null ? application : context).getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * 取得媒体视频轨道的格式
+     *
+     * @param media 媒体（已开始播放或已解析）
+     * @return 格式，还没有视频轨道信息时返回 null
+     */
+    static String formatOf(Media media) {
+        if (media == null || media.isReleased()) {
+            return null;
+        }
+        int count = media.getTrackCount();
+        for (int i = 0; i < count; i++) {
+            Media.Track track = media.getTrack(i);
+            if (track instanceof Media.VideoTrack) {
+                Media.VideoTrack video = (Media.VideoTrack) track;
+                return video.codec + "|" + video.width + "x" + video.height + "|" + video.profile
+                        + "|" + Build.MODEL + "/" + Build.VERSION.SDK_INT;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 该地址是否应直接使用软件解码
+     *
+     * @param uri 视频地址
+     * @return 该地址以前硬件解码失败过
+     */
+    boolean prefersSoftware(Uri uri) {
+        return uri != null && preferences.contains(URI_PREFIX + uri);
+    }
+
+    /**
+     * 该格式是否只能软件解码
+     *
+     * @param format {@link #formatOf(Media)} 的结果
+     * @return 该格式在本设备上硬件解码失败过
+     */
+    boolean isSoftwareOnly(String format) {
+        return format != null && preferences.contains(FORMAT_PREFIX + format);
+    }
+
+    /**
+     * 记录硬件解码失败
+     *
+     * @param uri    视频地址
+     * @param format 视频格式，未知时为 null
+     */
+    void markSoftware(Uri uri, String format) {
+        SharedPreferences.Editor editor = preferences.edit();
+        if (uriCount < 0) {
+            uriCount = countUris();
+        }
+        if (uriCount >= MAX_URIS) {
+            for (String key : preferences.getAll().keySet()) {
+                if (key.startsWith(URI_PREFIX)) {
+                    editor.remove(key);
+                }
+            }
+            uriCount = 0;
+        }
+        if (uri != null && !prefersSoftware(uri)) {
+            editor.putString(URI_PREFIX + uri, format != null ? format : "");
+            uriCount++;
+        }
+        if (format != null) {
+            editor.putBoolean(FORMAT_PREFIX + format, true);
+        }
+        editor.apply();
+    }
+
+    private int countUris() {
+        int count = 0;
+        for (String key : preferences.getAll().keySet()) {
+            if (key.startsWith(URI_PREFIX)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
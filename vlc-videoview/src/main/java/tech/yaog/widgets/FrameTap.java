@@ -0,0 +1,278 @@
+package tech.yaog.widgets;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.TextureView;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 取出正在显示的视频帧，供画面分析（如移动侦测）使用，不必再解码一次.
+ * 帧从 {@link VlcVideoView.RenderBackend#TextureView} 的画面缩小后复制到池化的直接内存 {@link ByteBuffer} 中，在后台线程回调；
+ * 池中没有空闲缓冲区（处理跟不上）时在读回之前直接丢弃新帧，不分配新内存.
+ * 每一帧都要在 UI 线程上从 GPU 读回，默认两帧间隔不小于 {@link #DEFAULT_MIN_INTERVAL} 毫秒.
+ * 取到的是视图显示的画面，帧的宽高比跟随视图而不是视频：视图按视频比例布局（默认）时两者一致，拉伸或裁剪时画面也相应变形.
+ * <p>
+ * 当前使用的 libvlc 2.x Java 接口没有视频内存回调，因此从 TextureView 取帧（缩放在 GPU 上完成），SurfaceView 后端下收不到帧.
+ */
+public class FrameTap {
+
+    /**
+     * 默认的两帧最小间隔(ms)，约 10fps
+     */
+    public static final long DEFAULT_MIN_INTERVAL = 100;
+
+    private static final String TAG = FrameTap.class.getName();
+    private static final int DEFAULT_POOL_SIZE = 3;
+
+    private final int width;
+    private final Chroma chroma;
+    private final long minInterval;
+    private final Consumer consumer;
+    private final ConcurrentLinkedQueue<Slot> free = new ConcurrentLinkedQueue<>();
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "vlc-frame-tap");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    /**
+     * 只在主线程访问
+     */
+    private Bitmap scratch;
+    private long lastCapture;
+    private volatile boolean released;
+
+    /**
+     * 三个缓冲区，两帧间隔不小于 {@link #DEFAULT_MIN_INTERVAL}
+     *
+     * @param width    输出宽度(px)，高度按视图比例计算；视图比这小时按视图大小
+     * @param chroma   输出格式
+     * @param consumer 帧回调（后台线程）
+     */
+    public FrameTap(int width, Chroma chroma, Consumer consumer) {
+        this(width, chroma, DEFAULT_POOL_SIZE, DEFAULT_MIN_INTERVAL, consumer);
+    }
+
+    /**
+     * @param width       输出宽度(px)，高度按视图比例计算；视图比这小时按视图大小
+     * @param chroma      输出格式
+     * @param poolSize    缓冲区数量，即最多排队等待处理的帧数
+     * @param minInterval 两帧之间的最小间隔(ms)，0 表示不限（每次画面更新都在 UI 线程读回，开销较大）
+     * @param consumer    帧回调（后台线程）
+     */
+    public FrameTap(int width, Chroma chroma, int poolSize, long minInterval, Consumer consumer) {
+        this.width = width;
+        this.chroma = chroma;
+        this.minInterval = minInterval;
+        this.consumer = consumer;
+        for (int i = 0; i < Math.max(1, poolSize); i++) {
+            free.offer(new Slot());
+        }
+    }
+
+    /**
+     * 已回调的帧数
+     *
+     * @return 帧数
+     */
+    public long getDeliveredFrames() {
+        return delivered.get();
+    }
+
+    /**
+     * 因处理跟不上而丢弃的帧数
+     *
+     * @return 帧数
+     */
+    public long getDroppedFrames() {
+        return dropped.get();
+    }
+
+    /**
+     * 停止回调并释放缓冲区（主线程），之后不可再使用
+     */
+    public void release() {
+        released = true;
+        worker.shutdown();
+        free.clear();
+        if (scratch != null) {
+            scratch.recycle();
+            scratch = null;
+        }
+    }
+
+    /**
+     * TextureView 画面更新时调用（主线程）
+     *
+     * @param view 视频层
+     */
+    void capture(TextureView view) {
+        if (released) {
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        if (minInterval > 0 && now - lastCapture < minInterval) {
+            return;
+        }
+        int viewWidth = view.getWidth();
+        int viewHeight = view.getHeight();
+        if (viewWidth <= 0 || viewHeight <= 0) {
+            return;
+        }
+        // 先取缓冲区，没有空闲的就不做读回
+        Slot slot = free.poll();
+        if (slot == null) {
+            dropped.incrementAndGet();
+            return;
+        }
+        lastCapture = now;
+        int frameWidth = Math.min(width, viewWidth);
+        int frameHeight = Math.max(1, (int) ((long) viewHeight * frameWidth / viewWidth));
+        if (scratch == null || scratch.getWidth() != frameWidth || scratch.getHeight() != frameHeight) {
+            if (scratch != null) {
+                scratch.recycle();
+            }
+            scratch = Bitmap.createBitmap(frameWidth, frameHeight, Bitmap.Config.ARGB_8888);
+        }
+        try {
+            view.getBitmap(scratch);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "capture failed", e);
+            free.offer(slot);
+            return;
+        }
+        slot.rgba = ensureCapacity(slot.rgba, frameWidth * frameHeight * 4);
+        scratch.copyPixelsToBuffer(slot.rgba);
+        slot.rgba.flip();
+        slot.width = frameWidth;
+        slot.height = frameHeight;
+        slot.time = now;
+        worker.execute(slot);
+    }
+
+    private static ByteBuffer ensureCapacity(ByteBuffer buffer, int capacity) {
+        if (buffer == null || buffer.capacity() < capacity) {
+            return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * 把 RGBA 转换为目标格式
+     */
+    private void convert(Slot slot) {
+        ByteBuffer rgba = slot.rgba;
+        int pixels = slot.width * slot.height;
+        slot.output = ensureCapacity(slot.output, pixels * chroma.bytesPerPixel);
+        ByteBuffer output = slot.output;
+        if (chroma == Chroma.GREY) {
+            for (int i = 0; i < pixels; i++) {
+                int r = rgba.get() & 0xff;
+                int g = rgba.get() & 0xff;
+                int b = rgba.get() & 0xff;
+                rgba.get();
+                // BT.601 亮度
+                output.put((byte) ((77 * r + 150 * g + 29 * b) >> 8));
+            }
+        } else {
+            for (int i = 0; i < pixels; i++) {
+                int r = rgba.get() & 0xff;
+                int g = rgba.get() & 0xff;
+                int b = rgba.get() & 0xff;
+                rgba.get();
+                output.putShort((short) (((r >> 3) << 11) | ((g >> 2) << 5) | (b >> 3)));
+            }
+        }
+        output.flip();
+    }
+
+    /**
+     * 输出格式
+     */
+    public enum Chroma {
+        /**
+         * 每像素 4 字节，依次为 R、G、B、A
+         */
+        RGBA(4),
+        /**
+         * 每像素 2 字节（本机字节序）
+         */
+        RGB565(2),
+        /**
+         * 每像素 1 字节亮度
+         */
+        GREY(1);
+
+        /**
+         * 每像素字节数
+         */
+        public final int bytesPerPixel;
+
+        Chroma(int bytesPerPixel) {
+            this.bytesPerPixel = bytesPerPixel;
+        }
+    }
+
+    /**
+     * 帧回调
+     */
+    public interface Consumer {
+        /**
+         * 收到一帧（后台线程）.
+         * 缓冲区在回调返回后回收再用，需要保留的数据应在回调中复制
+         *
+         * @param frame  帧数据，行间没有填充，position 为 0、limit 为数据长度
+         * @param width  宽度(px)
+         * @param height 高度(px)
+         * @param chroma 格式
+         * @param time   取帧时间(ms，{@link SystemClock#uptimeMillis()})
+         */
+        void onFrame(ByteBuffer frame, int width, int height, Chroma chroma, long time);
+    }
+
+    /**
+     * 一个帧缓冲区，回调结束后放回空闲队列
+     */
+    private class Slot implements Runnable {
+        private ByteBuffer rgba;
+        private ByteBuffer output;
+        private int width;
+        private int height;
+        private long time;
+
+        @Override
+        public void run() {
+            try {
+                if (released) {
+                    return;
+                }
+                ByteBuffer frame = rgba;
+                if (chroma != Chroma.RGBA) {
+                    convert(this);
+                    frame = output;
+                }
+                consumer.onFrame(frame, width, height, chroma, time);
+                delivered.incrementAndGet();
+            } catch (RuntimeException e) {
+                Log.w(TAG, "consumer failed", e);
+            } finally {
+                if (!released) {
+                    free.offer(this);
+                }
+            }
+        }
+    }
+}
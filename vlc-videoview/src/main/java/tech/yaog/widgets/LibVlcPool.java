@@ -0,0 +1,144 @@
+package tech.yaog.widgets;
+
+import android.content.Context;
+
+import org.videolan.libvlc.LibVLC;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * LibVLC 实例池.
+ * 参数相同的 {@link VlcVideoView} 共享同一个 {@link LibVLC}，
+ * 引用计数归零后保留一段空闲时间，超时仍无人使用才真正释放.
+ * 可在任意线程调用；实例总是在 {@link NativeLifecycle} 线程中释放.
+ */
+public final class LibVlcPool {
+
+    /**
+     * 默认空闲保留时间(ms)
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT = 30000;
+
+    private static final Map<List<String>, Entry> entries = new HashMap<>();
+    private static final Map<LibVLC, Entry> instances = new IdentityHashMap<>();
+    private static long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+
+    private LibVlcPool() {
+    }
+
+    /**
+     * 取得 LibVLC 实例，引用计数 +1
+     *
+     * @param context 上下文
+     * @param options VLC 参数，参数列表相同（含顺序）的调用共享同一实例
+     * @return LibVLC 实例
+     */
+    public static synchronized LibVLC acquire(Context context, String... options) {
+        List<String> key = new ArrayList<>(Arrays.asList(options));
+        Entry entry = entries.get(key);
+        if (entry == null || entry.vlc.isReleased()) {
+            entry = new Entry(key, new LibVLC(context.getApplicationContext(), new ArrayList<>(key)));
+            entries.put(key, entry);
+            instances.put(entry.vlc, entry);
+        }
+        entry.cancelEviction();
+        entry.refCount++;
+        return entry.vlc;
+    }
+
+    /**
+     * 归还 LibVLC 实例，引用计数 -1
+     * 计数归零后经过空闲保留时间再释放
+     *
+     * @param vlc 由 {@link #acquire(Context, String...)} 取得的实例
+     */
+    public static synchronized void release(LibVLC vlc) {
+        Entry entry = instances.get(vlc);
+        if (entry == null) {
+            releaseNative(vlc);
+            return;
+        }
+        if (entry.refCount > 0 && --entry.refCount == 0) {
+            if (idleTimeout > 0) {
+                entry.eviction = NativeLifecycle.schedule(entry, idleTimeout);
+            } else {
+                evict(entry);
+            }
+        }
+    }
+
+    /**
+     * 设置空闲保留时间
+     *
+     * @param timeout 空闲保留时间(ms)，0 表示引用计数归零后立即释放
+     */
+    public static synchronized void setIdleTimeout(long timeout) {
+        idleTimeout = Math.max(0, timeout);
+    }
+
+    /**
+     * 立即释放所有空闲实例（例如在 {@link android.content.ComponentCallbacks#onLowMemory()} 中调用）.
+     * 实例马上移出池，原生释放交给 {@link NativeLifecycle} 线程，不阻塞调用线程
+     */
+    public static synchronized void evictIdle() {
+        for (Entry entry : new ArrayList<>(entries.values())) {
+            if (entry.refCount == 0) {
+                entry.cancelEviction();
+                evict(entry);
+            }
+        }
+    }
+
+    private static void evict(Entry entry) {
+        entries.remove(entry.key);
+        instances.remove(entry.vlc);
+        releaseNative(entry.vlc);
+    }
+
+    private static void releaseNative(final LibVLC vlc) {
+        NativeLifecycle.execute(new Runnable() {
+            @Override
+            public void run() {
+                MediaPlayerPool.clear(vlc);
+                if (!vlc.isReleased()) {
+                    vlc.release();
+                }
+            }
+        });
+    }
+
+    private static class Entry implements Runnable {
+        private final List<String> key;
+        private final LibVLC vlc;
+        private int refCount;
+        private ScheduledFuture<?> eviction;
+
+        private Entry(List<String> key, LibVLC vlc) {
+            this.key = key;
+            this.vlc = vlc;
+        }
+
+        private void cancelEviction() {
+            if (eviction != null) {
+                eviction.cancel(false);
+                eviction = null;
+            }
+        }
+
+        @Override
+        public void run() {
+            synchronized (LibVlcPool.class) {
+                eviction = null;
+                if (refCount == 0 && entries.get(key) == this) {
+                    evict(this);
+                }
+            }
+        }
+    }
+}
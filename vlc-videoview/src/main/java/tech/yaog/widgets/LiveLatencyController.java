@@ -0,0 +1,113 @@
+package tech.yaog.widgets;
+
+/**
+ * 直播延迟控制.
+ * 累计墙上时钟与播放时间的差值（卡顿、解码跟不上都会使其增大），加上缓存时长作为延迟的估计值：
+ * 稍高于目标时提高播放速率追赶，回到目标以内恢复原速；超出太多时要求重新连接.
+ * 本类不涉及线程和 Android API，时间由调用方传入.
+ */
+final class LiveLatencyController {
+
+    /**
+     * {@link #update(long, long)} 返回值：需要重新连接
+     */
+    static final float RESYNC = 0f;
+    /**
+     * 追赶时的播放速率
+     */
+    static final float CATCH_UP_RATE = 1.15f;
+    /**
+     * 超出目标多少后开始追赶(ms)
+     */
+    private static final long TOLERANCE = 100;
+    /**
+     * 超出目标多少后直接重连(ms)，追赶需要的时间太长
+     */
+    private static final long RESYNC_THRESHOLD = 2000;
+    /**
+     * 两次采样间隔超过此值视为中断（如暂停），重连回到直播点(ms)
+     */
+    private static final long MAX_GAP = 5000;
+
+    private final long target;
+    private final long baseLatency;
+    private long drift;
+    private long lastNow = -1;
+    private long lastTime;
+    private float rate = 1f;
+
+    /**
+     * @param target      目标延迟(ms)
+     * @param baseLatency 固定部分的延迟（缓存时长）(ms)
+     */
+    LiveLatencyController(long target, long baseLatency) {
+        this.target = target;
+        this.baseLatency = baseLatency;
+    }
+
+    /**
+     * 开始新的播放（重新打开或重连之后）
+     */
+    void reset() {
+        drift = 0;
+        lastNow = -1;
+        rate = 1f;
+    }
+
+    /**
+     * 提交一次播放时间
+     *
+     * @param now  当前时间(ms，单调时钟)
+     * @param time 播放时间(ms)
+     * @return 应使用的播放速率，或 {@link #RESYNC}
+     */
+    float update(long now, long time) {
+        if (lastNow >= 0) {
+            long elapsed = now - lastNow;
+            if (elapsed > MAX_GAP) {
+                return RESYNC;
+            }
+            drift = Math.max(0, drift + elapsed - (time - lastTime));
+        }
+        lastNow = now;
+        lastTime = time;
+
+        long latency = getLatency();
+        if (latency > target + RESYNC_THRESHOLD) {
+            return RESYNC;
+        }
+        if (latency > target + TOLERANCE) {
+            rate = CATCH_UP_RATE;
+        } else if (latency <= target) {
+            rate = 1f;
+        }
+        return rate;
+    }
+
+    /**
+     * 当前延迟的估计值
+     *
+     * @return 延迟(ms)
+     */
+    long getLatency() {
+        return baseLatency + drift;
+    }
+
+    long getTarget() {
+        return target;
+    }
+
+    /**
+     * 打开直播媒体时使用的 libvlc 参数：按目标延迟设置较小的网络缓存，关闭时钟抖动补偿和同步，RTSP 使用 TCP 传输
+     *
+     * @param scheme 地址的 scheme，可为 null
+     * @return 媒体参数
+     */
+    String[] mediaOptions(String scheme) {
+        String caching = ":network-caching=" + baseLatency;
+        if ("rtsp".equals(scheme)) {
+            return new String[]{caching, ":clock-jitter=0", ":clock-synchro=0", ":rtsp-tcp"};
+        }
+        return new String[]{caching, ":clock-jitter=0", ":clock-synchro=0"};
+    }
+}
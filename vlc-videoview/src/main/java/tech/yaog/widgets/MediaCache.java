@@ -0,0 +1,367 @@
+package tech.yaog.widgets;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * 按地址缓存媒体数据的磁盘缓存.
+ * 每个地址对应一个数据文件（按偏移写入，可以只缓存部分区间）和一个索引文件（总长度、类型、已缓存区间）。
+ * 总大小超出上限时按最近使用顺序淘汰，正在读写的条目不会被淘汰.
+ */
+final class MediaCache {
+
+    private static final int INDEX_MAGIC = 0x564d4332;
+    private static final String DATA_SUFFIX = ".data";
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private final File dir;
+    private long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param dir      缓存目录
+     * @param maxBytes 缓存大小上限(byte)
+     */
+    MediaCache(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        load();
+    }
+
+    /**
+     * 打开地址对应的条目，用完后调用 {@link #close(Entry)}
+     *
+     * @param url 地址
+     * @return 缓存条目
+     * @throws IOException 数据文件无法打开
+     */
+    synchronized Entry open(String url) throws IOException {
+        String key = keyOf(url);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry(key);
+            entries.put(key, entry);
+        }
+        if (entry.users++ == 0) {
+            try {
+                entry.openFile();
+            } catch (IOException e) {
+                entry.users--;
+                throw e;
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * 结束使用条目，保存索引并按需淘汰
+     *
+     * @param entry 由 {@link #open(String)} 打开的条目
+     */
+    synchronized void close(Entry entry) {
+        if (--entry.users == 0) {
+            entry.closeFile();
+        }
+        trim();
+    }
+
+    /**
+     * 设置缓存大小上限
+     *
+     * @param maxBytes 缓存大小上限(byte)
+     */
+    synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        trim();
+    }
+
+    /**
+     * 已缓存的总字节数
+     *
+     * @return 总字节数
+     */
+    synchronized long size() {
+        long size = 0;
+        for (Entry entry : entries.values()) {
+            size += entry.size();
+        }
+        return size;
+    }
+
+    /**
+     * 删除所有未在使用的条目
+     */
+    synchronized void clear() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.users == 0) {
+                iterator.remove();
+                entry.delete();
+            }
+        }
+    }
+
+    private void trim() {
+        long size = size();
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (size > maxBytes && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.users == 0) {
+                size -= entry.size();
+                iterator.remove();
+                entry.delete();
+            }
+        }
+    }
+
+    /**
+     * 读取已有索引，按最后使用时间恢复淘汰顺序
+     */
+    private void load() {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> indexes = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().endsWith(INDEX_SUFFIX)) {
+                indexes.add(file);
+            }
+        }
+        Collections.sort(indexes, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        for (File index : indexes) {
+            String name = index.getName();
+            Entry entry = new Entry(name.substring(0, name.length() - INDEX_SUFFIX.length()));
+            if (entry.readIndex()) {
+                entries.put(entry.key, entry);
+            } else {
+                entry.delete();
+            }
+        }
+    }
+
+    static String keyOf(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(url.getBytes("UTF-8"));
+            StringBuilder key = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return Integer.toHexString(url.hashCode());
+        }
+    }
+
+    /**
+     * 一个地址的缓存数据.
+     * 读写方法互斥，可被多个连接同时使用
+     */
+    final class Entry {
+        private final String key;
+        private final ByteRanges ranges = new ByteRanges();
+        private long length = -1;
+        private String contentType;
+        /**
+         * 上游的 ETag（没有时为 Last-Modified），判断内容是否更新
+         */
+        private String validator;
+        /**
+         * 本次运行中是否已和上游核对过
+         */
+        private boolean validated;
+        private RandomAccessFile file;
+        private int users;
+
+        private Entry(String key) {
+            this.key = key;
+        }
+
+        /**
+         * 总长度
+         *
+         * @return 总长度(byte)，未知时返回 -1
+         */
+        synchronized long getLength() {
+            return length;
+        }
+
+        synchronized String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * 本次运行中是否已用 {@link #setInfo} 和上游核对过，从索引恢复的条目为 false
+         */
+        synchronized boolean isValidated() {
+            return validated;
+        }
+
+        /**
+         * 记录上游返回的总长度、类型和校验值；总长度或校验值变化说明内容已更新，丢弃旧数据
+         *
+         * @param validator ETag 或 Last-Modified，上游没有时为 null
+         * @return 内容是否已更新
+         */
+        synchronized boolean setInfo(long length, String contentType, String validator) {
+            boolean changed = this.length >= 0 && (this.length != length
+                    || (this.validator != null && validator != null && !this.validator.equals(validator)));
+            if (changed) {
+                ranges.clear();
+            }
+            this.length = length;
+            this.contentType = contentType;
+            this.validator = validator;
+            validated = true;
+            return changed;
+        }
+
+        /**
+         * @see ByteRanges#cachedEnd(long)
+         */
+        synchronized long cachedEnd(long position) {
+            return ranges.cachedEnd(position);
+        }
+
+        /**
+         * @see ByteRanges#nextStart(long)
+         */
+        synchronized long nextStart(long position) {
+            return ranges.nextStart(position);
+        }
+
+        /**
+         * 读取已缓存的数据
+         *
+         * @return 读到的字节数
+         */
+        synchronized int read(long position, byte[] buffer, int count) throws IOException {
+            file.seek(position);
+            return file.read(buffer, 0, count);
+        }
+
+        /**
+         * 写入从上游取得的数据
+         */
+        synchronized void write(long position, byte[] buffer, int count) throws IOException {
+            file.seek(position);
+            file.write(buffer, 0, count);
+            ranges.add(position, position + count);
+        }
+
+        private synchronized long size() {
+            return ranges.size();
+        }
+
+        private synchronized void openFile() throws IOException {
+            file = new RandomAccessFile(new File(dir, key + DATA_SUFFIX), "rw");
+        }
+
+        private synchronized void closeFile() {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException ignored) {
+                }
+                file = null;
+            }
+            writeIndex();
+        }
+
+        private synchronized void delete() {
+            new File(dir, key + DATA_SUFFIX).delete();
+            new File(dir, key + INDEX_SUFFIX).delete();
+        }
+
+        private boolean readIndex() {
+            File index = new File(dir, key + INDEX_SUFFIX);
+            if (!new File(dir, key + DATA_SUFFIX).exists()) {
+                return false;
+            }
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(index)));
+                if (in.readInt() != INDEX_MAGIC) {
+                    return false;
+                }
+                length = in.readLong();
+                contentType = in.readBoolean() ? in.readUTF() : null;
+                validator = in.readBoolean() ? in.readUTF() : null;
+                ranges.read(in);
+                return true;
+            } catch (IOException e) {
+                return false;
+            } finally {
+                closeQuietly(in);
+            }
+        }
+
+        /**
+         * 先写临时文件再改名，中途失败不会留下损坏的索引
+         */
+        private void writeIndex() {
+            File index = new File(dir, key + INDEX_SUFFIX);
+            File temp = new File(dir, key + INDEX_SUFFIX + ".tmp");
+            DataOutputStream out = null;
+            try {
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+                out.writeInt(INDEX_MAGIC);
+                out.writeLong(length);
+                out.writeBoolean(contentType != null);
+                if (contentType != null) {
+                    out.writeUTF(contentType);
+                }
+                out.writeBoolean(validator != null);
+                if (validator != null) {
+                    out.writeUTF(validator);
+                }
+                ranges.write(out);
+                out.close();
+                out = null;
+                if (!temp.renameTo(index)) {
+                    index.delete();
+                    temp.renameTo(index);
+                }
+            } catch (IOException e) {
+                temp.delete();
+            } finally {
+                closeQuietly(out);
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,475 @@
+package tech.yaog.widgets;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 网络媒体的本地缓存代理.
+ * 在 127.0.0.1 上提供 HTTP 服务，把 {@link #getProxyUrl(String)} 返回的地址交给 libvlc 播放：
+ * 请求的字节区间已缓存时直接从磁盘读取，缺失的部分按 Range 向原地址下载并同时写入缓存.
+ * 缓存总大小超出上限时按最近使用顺序淘汰.
+ * 只依赖 JDK，可以在 JVM 上配合本地 HTTP 服务测试.
+ */
+public class MediaCacheProxy {
+
+    /**
+     * 默认缓存大小上限(byte)
+     */
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int TIMEOUT = 15000;
+
+    private final MediaCache cache;
+    private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "vlc-cache-proxy");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private ServerSocket serverSocket;
+
+    /**
+     * @param dir 缓存目录
+     */
+    public MediaCacheProxy(File dir) {
+        this(dir, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param dir      缓存目录
+     * @param maxBytes 缓存大小上限(byte)
+     */
+    public MediaCacheProxy(File dir, long maxBytes) {
+        cache = new MediaCache(dir, maxBytes);
+    }
+
+    /**
+     * 启动代理（已启动时无操作）
+     *
+     * @throws IOException 无法监听本地端口
+     */
+    public synchronized void start() throws IOException {
+        if (serverSocket != null) {
+            return;
+        }
+        final ServerSocket server = new ServerSocket(0, 16, InetAddress.getByName("127.0.0.1"));
+        serverSocket = server;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                accept(server);
+            }
+        });
+    }
+
+    /**
+     * 停止代理，正在进行的传输在当前块完成后结束
+     */
+    public synchronized void stop() {
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException ignored) {
+            }
+            serverSocket = null;
+        }
+    }
+
+    /**
+     * 取得监听端口
+     *
+     * @return 端口，未启动时返回 -1
+     */
+    public synchronized int getPort() {
+        return serverSocket != null ? serverSocket.getLocalPort() : -1;
+    }
+
+    /**
+     * 取得经由代理的地址
+     *
+     * @param url 原地址
+     * @return 代理地址；代理未启动或不是 http/https 地址时返回原地址
+     */
+    public String getProxyUrl(String url) {
+        int port = getPort();
+        String scheme = url.toLowerCase(Locale.US);
+        if (port < 0 || !(scheme.startsWith("http://") || scheme.startsWith("https://"))) {
+            return url;
+        }
+        try {
+            return "http://127.0.0.1:" + port + "/" + URLEncoder.encode(url, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            return url;
+        }
+    }
+
+    /**
+     * 设置缓存大小上限
+     *
+     * @param maxBytes 缓存大小上限(byte)
+     */
+    public void setMaxBytes(long maxBytes) {
+        cache.setMaxBytes(maxBytes);
+    }
+
+    /**
+     * 已缓存的总字节数
+     *
+     * @return 总字节数
+     */
+    public long getCachedBytes() {
+        return cache.size();
+    }
+
+    /**
+     * 清空缓存（正在播放的除外）
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    private void accept(ServerSocket server) {
+        while (!server.isClosed()) {
+            final Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                break;
+            }
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    serve(socket);
+                }
+            });
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            socket.setSoTimeout(TIMEOUT);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+            String requestLine = readLine(in);
+            if (requestLine == null) {
+                return;
+            }
+            String[] parts = requestLine.split(" ");
+            long start = 0;
+            long end = -1;
+            long suffix = -1;
+            boolean ranged = false;
+            String line;
+            while ((line = readLine(in)) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Range")) {
+                    String value = line.substring(colon + 1).trim();
+                    if (value.startsWith("bytes=") && value.indexOf(',') < 0) {
+                        String[] range = value.substring(6).split("-", -1);
+                        try {
+                            String first = range[0].trim();
+                            String last = range[1].trim();
+                            if (first.isEmpty() && !last.isEmpty()) {
+                                // bytes=-N 表示最后 N 字节，知道长度后再换算
+                                suffix = Long.parseLong(last);
+                                ranged = true;
+                            } else if (!first.isEmpty()) {
+                                start = Long.parseLong(first);
+                                end = last.isEmpty() ? -1 : Long.parseLong(last);
+                                ranged = true;
+                            }
+                        } catch (NumberFormatException ignored) {
+                        }
+                    }
+                }
+            }
+            if (parts.length < 2 || !parts[1].startsWith("/")) {
+                writeHeader(out, 400, "Bad Request", null, -1, null);
+                return;
+            }
+            boolean head = parts[0].equals("HEAD");
+            String url = URLDecoder.decode(parts[1].substring(1), "UTF-8");
+            MediaCache.Entry entry = cache.open(url);
+            try {
+                transfer(entry, url, head, ranged, start, end, suffix, out);
+            } finally {
+                cache.close(entry);
+            }
+        } catch (IOException ignored) {
+            // 客户端断开（跳转时 libvlc 会直接关闭连接）或上游出错
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * @param suffix 请求最后多少字节（bytes=-N），-1 表示按 start、end
+     */
+    private void transfer(MediaCache.Entry entry, String url, boolean head, boolean ranged,
+                          long start, long end, long suffix, OutputStream out) throws IOException {
+        Upstream upstream = null;
+        try {
+            long length = entry.getLength();
+            if (length < 0 || !entry.isValidated()) {
+                // 长度未知，或本次运行中还没核对过（远端文件可能已被替换）
+                try {
+                    // 后缀区间先只取一个字节得到长度
+                    upstream = suffix >= 0 ? Upstream.open(url, 0, 0) : Upstream.open(url, start, end);
+                } catch (UpstreamException e) {
+                    writeHeader(out, e.code, "Upstream Error", null, -1, null);
+                    return;
+                }
+                if (upstream.length < 0 && suffix >= 0) {
+                    writeHeader(out, 416, "Range Not Satisfiable", null, 0, "bytes */*");
+                    return;
+                }
+                if (upstream.length < 0) {
+                    // 长度未知（如直播流），不缓存，直接转发
+                    writeHeader(out, 200, "OK", upstream.contentType, -1, null);
+                    if (!head) {
+                        upstream.copyTo(out);
+                    }
+                    return;
+                }
+                entry.setInfo(upstream.length, upstream.contentType, upstream.validator);
+                length = upstream.length;
+            }
+            if (suffix == 0) {
+                writeHeader(out, 416, "Range Not Satisfiable", null, 0, "bytes */" + length);
+                return;
+            }
+            if (suffix > 0) {
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            }
+            if (start >= length) {
+                writeHeader(out, 416, "Range Not Satisfiable", null, 0, "bytes */" + length);
+                return;
+            }
+            if (end < 0 || end >= length) {
+                end = length - 1;
+            }
+            if (ranged) {
+                writeHeader(out, 206, "Partial Content", entry.getContentType(), end - start + 1,
+                        "bytes " + start + "-" + end + "/" + length);
+            } else {
+                writeHeader(out, 200, "OK", entry.getContentType(), length, null);
+            }
+            if (head) {
+                return;
+            }
+
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long position = start;
+            while (position <= end) {
+                long cachedEnd = entry.cachedEnd(position);
+                int n;
+                if (cachedEnd > position) {
+                    if (upstream != null) {
+                        upstream.close();
+                        upstream = null;
+                    }
+                    n = entry.read(position, buffer, (int) Math.min(buffer.length, Math.min(cachedEnd, end + 1) - position));
+                } else {
+                    if (upstream == null || upstream.position != position) {
+                        if (upstream != null) {
+                            upstream.close();
+                        }
+                        // 只下载到下一个已缓存区间之前
+                        long fetchEnd = Math.min(end, entry.nextStart(position) - 1);
+                        upstream = Upstream.open(url, position, fetchEnd);
+                        if (upstream.length >= 0 && entry.setInfo(upstream.length, upstream.contentType, upstream.validator)) {
+                            // 上游内容已更新，已发出的部分作废，断开让客户端重新请求
+                            throw new EOFException();
+                        }
+                    }
+                    n = upstream.read(buffer, (int) Math.min(buffer.length, end + 1 - position));
+                    if (n > 0) {
+                        entry.write(position, buffer, n);
+                    }
+                }
+                if (n <= 0) {
+                    throw new EOFException();
+                }
+                out.write(buffer, 0, n);
+                position += n;
+            }
+            out.flush();
+        } finally {
+            if (upstream != null) {
+                upstream.close();
+            }
+        }
+    }
+
+    private static void writeHeader(OutputStream out, int code, String message, String contentType,
+                                    long contentLength, String contentRange) throws IOException {
+        StringBuilder header = new StringBuilder();
+        header.append("HTTP/1.1 ").append(code).append(' ').append(message).append("\r\n");
+        if (contentType != null) {
+            header.append("Content-Type: ").append(contentType).append("\r\n");
+        }
+        if (contentLength >= 0) {
+            header.append("Content-Length: ").append(contentLength).append("\r\n");
+            header.append("Accept-Ranges: bytes\r\n");
+        }
+        if (contentRange != null) {
+            header.append("Content-Range: ").append(contentRange).append("\r\n");
+        }
+        header.append("Connection: close\r\n\r\n");
+        out.write(header.toString().getBytes("ISO-8859-1"));
+        out.flush();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() > 0 ? line.toString() : null;
+    }
+
+    /**
+     * 上游返回错误状态码
+     */
+    private static class UpstreamException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final int code;
+
+        private UpstreamException(int code) {
+            super("upstream responded " + code);
+            this.code = code;
+        }
+    }
+
+    /**
+     * 向原地址发起的一次（区间）下载
+     */
+    private static final class Upstream {
+        private final HttpURLConnection connection;
+        private final InputStream in;
+        private long position;
+        private long length = -1;
+        private String contentType;
+        private String validator;
+
+        private Upstream(HttpURLConnection connection, InputStream in, long position) {
+            this.connection = connection;
+            this.in = in;
+            this.position = position;
+        }
+
+        /**
+         * @param url      原地址
+         * @param position 起始位置
+         * @param end      结束位置（含），-1 表示到末尾
+         */
+        static Upstream open(String url, long position, long end) throws IOException {
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setConnectTimeout(TIMEOUT);
+            connection.setReadTimeout(TIMEOUT);
+            // 压缩后的长度与偏移对不上，必须要原始字节
+            connection.setRequestProperty("Accept-Encoding", "identity");
+            if (position > 0 || end >= 0) {
+                connection.setRequestProperty("Range", "bytes=" + position + "-" + (end >= 0 ? String.valueOf(end) : ""));
+            }
+            int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK && code != HttpURLConnection.HTTP_PARTIAL) {
+                connection.disconnect();
+                throw new UpstreamException(code);
+            }
+            Upstream upstream = new Upstream(connection, new BufferedInputStream(connection.getInputStream(), BUFFER_SIZE), position);
+            upstream.contentType = connection.getContentType();
+            String etag = connection.getHeaderField("ETag");
+            upstream.validator = etag != null ? etag : connection.getHeaderField("Last-Modified");
+            if (code == HttpURLConnection.HTTP_PARTIAL) {
+                String contentRange = connection.getHeaderField("Content-Range");
+                int slash = contentRange != null ? contentRange.lastIndexOf('/') : -1;
+                if (slash >= 0) {
+                    upstream.length = parseLong(contentRange.substring(slash + 1));
+                }
+            } else {
+                upstream.length = parseLong(connection.getHeaderField("Content-Length"));
+                // 上游不支持 Range，跳过前面的部分
+                long skip = position;
+                while (skip > 0) {
+                    long skipped = upstream.in.skip(skip);
+                    if (skipped <= 0) {
+                        upstream.close();
+                        throw new EOFException();
+                    }
+                    skip -= skipped;
+                }
+            }
+            return upstream;
+        }
+
+        int read(byte[] buffer, int count) throws IOException {
+            int n = in.read(buffer, 0, count);
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+
+        void copyTo(OutputStream out) throws IOException {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, n);
+            }
+            out.flush();
+        }
+
+        void close() {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+            connection.disconnect();
+        }
+
+        private static long parseLong(String value) {
+            if (value == null) {
+                return -1;
+            }
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+    }
+}
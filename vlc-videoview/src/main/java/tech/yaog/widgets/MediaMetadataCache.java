@@ -0,0 +1,646 @@
+package tech.yaog.widgets;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import org.videolan.libvlc.LibVLC;
+import org.videolan.libvlc.Media;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 媒体信息缓存（时长、视频尺寸、像素宽高比、轨道列表）.
+ * 信息由后台线程用 LibVLC 解析得到，持久化在磁盘上，键为视频地址，并用校验值判断是否过期：
+ * 本地文件为大小和修改时间，网络地址为 ETag（没有时为 Last-Modified 和长度）.
+ * {@link #get(Uri)} 只查内存（本地文件另取一次文件属性），可在主线程调用；解析在固定大小的线程池中进行.
+ */
+public class MediaMetadataCache {
+
+    private static final String TAG = MediaMetadataCache.class.getName();
+    private static final int FILE_MAGIC = 0x564d4431;
+    private static final int MAX_ENTRIES = 1024;
+    private static final int DEFAULT_PARALLELISM = 2;
+    private static final int TIMEOUT = 15000;
+    /**
+     * 解析完成后延迟写盘，合并批量扫描的多次更新(ms)
+     */
+    private static final long SAVE_DELAY = 1000;
+
+    private final Context context;
+    private final File file;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final LinkedHashMap<String, Metadata> entries = new LinkedHashMap<String, Metadata>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Metadata> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private final ExecutorService workers;
+    private final ScheduledExecutorService io = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "vlc-metadata-io");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private boolean saveScheduled;
+    /**
+     * 已调用 {@link #release()}，之后不再向线程池提交任务
+     */
+    private volatile boolean released;
+
+    /**
+     * 缓存文件放在应用缓存目录，两个解析线程
+     *
+     * @param context 上下文
+     */
+    public MediaMetadataCache(Context context) {
+        this(context, new File(context.getCacheDir(), "vlc-metadata"), DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * @param context     上下文
+     * @param file        缓存文件
+     * @param parallelism 同时解析的最大数量
+     */
+    public MediaMetadataCache(Context context, File file, int parallelism) {
+        this.context = context.getApplicationContext();
+        this.file = file;
+        this.workers = Executors.newFixedThreadPool(Math.max(1, parallelism), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "vlc-metadata-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        io.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    /**
+     * 取得已缓存的信息.
+     * 本地文件会比较大小和修改时间，网络地址不在此处校验（由下次 {@link #probe} 更新）
+     *
+     * @param uri 视频地址
+     * @return 媒体信息，未缓存、缓存尚未加载或已过期时为 null
+     */
+    public Metadata get(Uri uri) {
+        Metadata metadata;
+        synchronized (entries) {
+            metadata = entries.get(uri.toString());
+        }
+        if (metadata != null && isLocal(uri) && !metadata.validator.equals(localValidator(uri))) {
+            return null;
+        }
+        return metadata;
+    }
+
+    /**
+     * 在后台解析媒体信息，缓存有效时不再解析
+     *
+     * @param uri      视频地址
+     * @param callback 结果回调（主线程），可为 null
+     */
+    public void probe(final Uri uri, final Callback callback) {
+        if (released) {
+            return;
+        }
+        workers.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Metadata metadata = probeNow(uri);
+                if (callback != null) {
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onMetadata(uri, metadata);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * 批量扫描目录（含子目录）中的所有文件，同时解析的数量受线程池大小限制
+     *
+     * @param dir      目录
+     * @param callback 结果回调（主线程），可为 null
+     */
+    public void prescan(final File dir, final ScanCallback callback) {
+        if (released) {
+            return;
+        }
+        io.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<File> files = new ArrayList<>();
+                collect(dir, files);
+                final AtomicInteger remaining = new AtomicInteger(files.size());
+                final AtomicInteger found = new AtomicInteger();
+                if (files.isEmpty()) {
+                    finishScan(callback, 0);
+                    return;
+                }
+                for (File file : files) {
+                    if (released) {
+                        return;
+                    }
+                    Uri uri = Uri.fromFile(file);
+                    try {
+                        submitProbe(uri, callback, remaining, found);
+                    } catch (RejectedExecutionException e) {
+                        // 扫描期间已 release
+                        return;
+                    }
+                }
+            }
+        });
+    }
+
+    private void submitProbe(final Uri uri, final ScanCallback callback, final AtomicInteger remaining, final AtomicInteger found) {
+        workers.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Metadata metadata = probeNow(uri);
+                if (metadata != null) {
+                    found.incrementAndGet();
+                }
+                if (callback != null) {
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onProbed(uri, metadata);
+                        }
+                    });
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    finishScan(callback, found.get());
+                }
+            }
+        });
+    }
+
+    /**
+     * 清空缓存（包括磁盘文件）
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+        scheduleSave();
+    }
+
+    /**
+     * 停止后台线程，之后不可再使用；尚未写盘的更新会先写入.
+     * 正在进行的原生解析不响应中断，等它结束后再做最后一次写盘
+     */
+    public void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        workers.shutdownNow();
+        io.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    workers.awaitTermination(TIMEOUT, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                save();
+            }
+        });
+        io.shutdown();
+    }
+
+    private void finishScan(final ScanCallback callback, final int found) {
+        if (callback == null) {
+            return;
+        }
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onFinished(found);
+            }
+        });
+    }
+
+    private static void collect(File dir, List<File> files) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                collect(child, files);
+            } else if (child.isFile()) {
+                files.add(child);
+            }
+        }
+    }
+
+    /**
+     * 解析媒体信息（阻塞）
+     *
+     * @return 媒体信息，无法打开或不是音视频时为 null
+     */
+    private Metadata probeNow(Uri uri) {
+        String validator = isLocal(uri) ? localValidator(uri) : remoteValidator(uri);
+        if (validator == null) {
+            return null;
+        }
+        String key = uri.toString();
+        synchronized (entries) {
+            Metadata cached = entries.get(key);
+            if (cached != null && (cached.validator.equals(validator) || validator.isEmpty())) {
+                return cached;
+            }
+        }
+        LibVLC vlc = LibVlcPool.acquire(context);
+        Media media = null;
+        Metadata metadata;
+        try {
+            media = new Media(vlc, uri);
+            // 已在后台线程，直接同步解析
+            media.parse(isLocal(uri) ? Media.Parse.ParseLocal : Media.Parse.ParseNetwork);
+            metadata = Metadata.from(validator, media);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "probe failed: " + uri, e);
+            metadata = null;
+        } finally {
+            if (media != null) {
+                media.release();
+            }
+            LibVlcPool.release(vlc);
+        }
+        if (metadata != null) {
+            synchronized (entries) {
+                entries.put(key, metadata);
+            }
+            scheduleSave();
+        }
+        return metadata;
+    }
+
+    private static boolean isLocal(Uri uri) {
+        String scheme = uri.getScheme();
+        return scheme == null || "file".equals(scheme);
+    }
+
+    private static String localValidator(Uri uri) {
+        File file = new File(uri.getPath());
+        if (!file.isFile()) {
+            return null;
+        }
+        return file.length() + ":" + file.lastModified();
+    }
+
+    /**
+     * 网络地址的校验值，无法取得时为空字符串（不校验）
+     */
+    private static String remoteValidator(Uri uri) {
+        String scheme = uri.getScheme();
+        if (!"http".equals(scheme) && !"https".equals(scheme)) {
+            return "";
+        }
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(uri.toString()).openConnection();
+            connection.setRequestMethod("HEAD");
+            connection.setConnectTimeout(TIMEOUT);
+            connection.setReadTimeout(TIMEOUT);
+            if (connection.getResponseCode() / 100 != 2) {
+                return "";
+            }
+            String etag = connection.getHeaderField("ETag");
+            if (etag != null) {
+                return etag;
+            }
+            String lastModified = connection.getHeaderField("Last-Modified");
+            return lastModified != null ? lastModified + ":" + connection.getHeaderField("Content-Length") : "";
+        } catch (IOException e) {
+            return "";
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private void scheduleSave() {
+        if (released) {
+            // release 中的最后一次写盘会包含这次更新
+            return;
+        }
+        synchronized (entries) {
+            if (saveScheduled) {
+                return;
+            }
+            saveScheduled = true;
+        }
+        try {
+            io.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    save();
+                }
+            }, SAVE_DELAY, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ignored) {
+            // 检查之后刚好 release，同上
+        }
+    }
+
+    private void load() {
+        if (!file.isFile()) {
+            return;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != FILE_MAGIC) {
+                return;
+            }
+            int count = in.readInt();
+            Map<String, Metadata> loaded = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                loaded.put(key, Metadata.read(in));
+            }
+            synchronized (entries) {
+                for (Map.Entry<String, Metadata> entry : loaded.entrySet()) {
+                    // 加载期间新解析的更新
+                    if (!entries.containsKey(entry.getKey())) {
+                        entries.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "load failed: " + file, e);
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * 先写临时文件再改名，中途失败不会留下损坏的缓存文件
+     */
+    private void save() {
+        Map<String, Metadata> snapshot;
+        synchronized (entries) {
+            saveScheduled = false;
+            snapshot = new LinkedHashMap<>(entries);
+        }
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String, Metadata> entry : snapshot.entrySet()) {
+                out.writeUTF(entry.getKey());
+                entry.getValue().write(out);
+            }
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                file.delete();
+                temp.renameTo(file);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "save failed: " + file, e);
+            temp.delete();
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * 媒体信息
+     */
+    public static final class Metadata {
+        private final String validator;
+        private final long duration;
+        private final int videoWidth;
+        private final int videoHeight;
+        private final int sarNum;
+        private final int sarDen;
+        private final List<Track> tracks;
+
+        private Metadata(String validator, long duration, int videoWidth, int videoHeight, int sarNum, int sarDen, List<Track> tracks) {
+            this.validator = validator;
+            this.duration = duration;
+            this.videoWidth = videoWidth;
+            this.videoHeight = videoHeight;
+            this.sarNum = sarNum;
+            this.sarDen = sarDen;
+            this.tracks = Collections.unmodifiableList(tracks);
+        }
+
+        private static Metadata from(String validator, Media media) {
+            int count = media.getTrackCount();
+            if (count <= 0) {
+                return null;
+            }
+            List<Track> tracks = new ArrayList<>(count);
+            int width = 0;
+            int height = 0;
+            int sarNum = 1;
+            int sarDen = 1;
+            for (int i = 0; i < count; i++) {
+                Media.Track track = media.getTrack(i);
+                if (track == null) {
+                    continue;
+                }
+                tracks.add(new Track(track.type, track.codec, track.language));
+                if (width == 0 && track instanceof Media.VideoTrack) {
+                    Media.VideoTrack video = (Media.VideoTrack) track;
+                    width = video.width;
+                    height = video.height;
+                    if (video.sarNum > 0 && video.sarDen > 0) {
+                        sarNum = video.sarNum;
+                        sarDen = video.sarDen;
+                    }
+                }
+            }
+            return new Metadata(validator, media.getDuration(), width, height, sarNum, sarDen, tracks);
+        }
+
+        private static Metadata read(DataInputStream in) throws IOException {
+            String validator = in.readUTF();
+            long duration = in.readLong();
+            int width = in.readInt();
+            int height = in.readInt();
+            int sarNum = in.readInt();
+            int sarDen = in.readInt();
+            int count = in.readInt();
+            List<Track> tracks = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                tracks.add(new Track(in.readInt(), in.readUTF(), in.readUTF()));
+            }
+            return new Metadata(validator, duration, width, height, sarNum, sarDen, tracks);
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            out.writeUTF(validator);
+            out.writeLong(duration);
+            out.writeInt(videoWidth);
+            out.writeInt(videoHeight);
+            out.writeInt(sarNum);
+            out.writeInt(sarDen);
+            out.writeInt(tracks.size());
+            for (Track track : tracks) {
+                out.writeInt(track.type);
+                out.writeUTF(track.codec);
+                out.writeUTF(track.language);
+            }
+        }
+
+        /**
+         * @return 时长(ms)，未知时为 0 或负数
+         */
+        public long getDuration() {
+            return duration;
+        }
+
+        /**
+         * @return 视频宽度(px)，没有视频轨道时为 0
+         */
+        public int getVideoWidth() {
+            return videoWidth;
+        }
+
+        /**
+         * @return 视频高度(px)，没有视频轨道时为 0
+         */
+        public int getVideoHeight() {
+            return videoHeight;
+        }
+
+        /**
+         * @return 像素宽高比的分子
+         */
+        public int getSarNum() {
+            return sarNum;
+        }
+
+        /**
+         * @return 像素宽高比的分母
+         */
+        public int getSarDen() {
+            return sarDen;
+        }
+
+        /**
+         * @return 轨道列表
+         */
+        public List<Track> getTracks() {
+            return tracks;
+        }
+    }
+
+    /**
+     * 轨道信息
+     */
+    public static final class Track {
+        /**
+         * 轨道类型，见 {@link Media.Track.Type}
+         */
+        public final int type;
+        /**
+         * 编码
+         */
+        public final String codec;
+        /**
+         * 语言，未知时为空字符串
+         */
+        public final String language;
+
+        private Track(int type, String codec, String language) {
+            this.type = type;
+            this.codec = codec != null ? codec : "";
+            this.language = language != null ? language : "";
+        }
+    }
+
+    /**
+     * 解析结果回调
+     */
+    public interface Callback {
+        /**
+         * 解析完成
+         *
+         * @param uri      视频地址
+         * @param metadata 媒体信息，失败时为 null
+         */
+        void onMetadata(Uri uri, Metadata metadata);
+    }
+
+    /**
+     * 批量扫描回调
+     */
+    public interface ScanCallback {
+        /**
+         * 一个文件解析完成
+         *
+         * @param uri      文件地址
+         * @param metadata 媒体信息，不是音视频或解析失败时为 null
+         */
+        void onProbed(Uri uri, Metadata metadata);
+
+        /**
+         * 扫描结束
+         *
+         * @param found 解析成功的文件数
+         */
+        void onFinished(int found);
+    }
+}
@@ -0,0 +1,177 @@
+package tech.yaog.widgets;
+
+import org.videolan.libvlc.IVLCVout;
+import org.videolan.libvlc.LibVLC;
+import org.videolan.libvlc.MediaPlayer;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * MediaPlayer 回收池.
+ * 按所属 {@link LibVLC} 分组保留少量已停止的播放器，{@link VlcVideoView} 在 attach 时借出、detach 时归还，
+ * 避免反复创建/释放原生播放器.
+ */
+public final class MediaPlayerPool {
+
+    /**
+     * 每个 LibVLC 默认保留的空闲播放器数量
+     */
+    public static final int DEFAULT_MAX_IDLE = 2;
+
+    private static final Map<LibVLC, ArrayDeque<MediaPlayer>> idle = new IdentityHashMap<>();
+    private static final Map<MediaPlayer, LibVLC> owners = new IdentityHashMap<>();
+    private static long hits;
+    private static long misses;
+    private static long evictions;
+    private static int maxIdle = DEFAULT_MAX_IDLE;
+
+    private MediaPlayerPool() {
+    }
+
+    /**
+     * 借出播放器，池中没有空闲播放器时新建
+     *
+     * @param vlc 所属 LibVLC
+     * @return 播放器
+     */
+    public static synchronized MediaPlayer obtain(LibVLC vlc) {
+        ArrayDeque<MediaPlayer> players = idle.get(vlc);
+        while (players != null && !players.isEmpty()) {
+            MediaPlayer player = players.poll();
+            if (!player.isReleased()) {
+                hits++;
+                return player;
+            }
+            owners.remove(player);
+        }
+        misses++;
+        MediaPlayer player = new MediaPlayer(vlc);
+        owners.put(player, vlc);
+        return player;
+    }
+
+    /**
+     * 归还播放器
+     * 播放器会被停止并解除事件监听和视频输出，调用方需先移除自己添加的 {@link IVLCVout.Callback}
+     *
+     * @param player 由 {@link #obtain(LibVLC)} 借出的播放器
+     */
+    public static synchronized void recycle(MediaPlayer player) {
+        if (player.isReleased()) {
+            owners.remove(player);
+            return;
+        }
+        player.setEventListener(null);
+        player.stop();
+        // 直播追赶时改过速率
+        player.setRate(1f);
+        IVLCVout vout = player.getVLCVout();
+        if (vout.areViewsAttached()) {
+            vout.detachViews();
+        }
+        LibVLC vlc = owners.get(player);
+        if (vlc == null || vlc.isReleased()) {
+            owners.remove(player);
+            player.release();
+            return;
+        }
+        ArrayDeque<MediaPlayer> players = idle.get(vlc);
+        if (players == null) {
+            players = new ArrayDeque<>();
+            idle.put(vlc, players);
+        }
+        if (players.size() >= maxIdle) {
+            owners.remove(player);
+            player.release();
+            evictions++;
+        } else {
+            players.offer(player);
+        }
+    }
+
+    /**
+     * 释放属于指定 LibVLC 的全部空闲播放器（LibVLC 释放前调用）
+     *
+     * @param vlc LibVLC
+     */
+    public static synchronized void clear(LibVLC vlc) {
+        ArrayDeque<MediaPlayer> players = idle.remove(vlc);
+        if (players != null) {
+            for (MediaPlayer player : players) {
+                owners.remove(player);
+                if (!player.isReleased()) {
+                    player.release();
+                }
+                evictions++;
+            }
+        }
+    }
+
+    /**
+     * 设置每个 LibVLC 保留的空闲播放器数量
+     *
+     * @param max 空闲播放器数量，0 表示不保留
+     */
+    public static synchronized void setMaxIdle(int max) {
+        maxIdle = Math.max(0, max);
+        for (ArrayDeque<MediaPlayer> players : idle.values()) {
+            while (players.size() > maxIdle) {
+                MediaPlayer player = players.poll();
+                owners.remove(player);
+                if (!player.isReleased()) {
+                    player.release();
+                }
+                evictions++;
+            }
+        }
+    }
+
+    /**
+     * 取得统计数据
+     *
+     * @return 统计数据
+     */
+    public static synchronized Stats getStats() {
+        int idleCount = 0;
+        for (ArrayDeque<MediaPlayer> players : idle.values()) {
+            idleCount += players.size();
+        }
+        return new Stats(hits, misses, evictions, idleCount);
+    }
+
+    /**
+     * 回收池统计数据
+     */
+    public static final class Stats {
+        /**
+         * 复用空闲播放器的次数
+         */
+        public final long hits;
+        /**
+         * 新建播放器的次数
+         */
+        public final long misses;
+        /**
+         * 因超出容量或 LibVLC 释放而销毁的播放器数量
+         */
+        public final long evictions;
+        /**
+         * 当前空闲播放器数量
+         */
+        public final int idle;
+
+        private Stats(long hits, long misses, long evictions, int idle) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.idle = idle;
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ", idle=" + idle;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package tech.yaog.widgets;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import org.videolan.libvlc.LibVLC;
+import org.videolan.libvlc.Media;
+import org.videolan.libvlc.MediaPlayer;
+
+/**
+ * 媒体预加载.
+ * 提前解析媒体并在一个不可见、静音的播放器中打开，填满网络缓冲后暂停并关闭视频轨道，
+ * 之后由 {@link VlcVideoView} 直接接管该播放器.
+ * 播放器在 {@link NativeLifecycle} 线程上取得，取得之前不可接管.
+ */
+final class MediaPreloader implements MediaPlayer.EventListener {
+
+    private static final String TAG = MediaPreloader.class.getName();
+
+    final Uri uri;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private Media media;
+    /**
+     * 主线程设置，{@link #release()} 在后台线程读取
+     */
+    private volatile MediaPlayer player;
+    private boolean ready;
+    private boolean failed;
+    private boolean cancelled;
+
+    /**
+     * @param vlc   播放器所属 LibVLC
+     * @param uri   视频地址
+     * @param media 已设置好解码参数的媒体，之后由预加载器持有
+     */
+    MediaPreloader(final LibVLC vlc, Uri uri, Media media) {
+        this.uri = uri;
+        this.media = media;
+        media.parseAsync(Media.Parse.ParseNetwork);
+        NativeLifecycle.execute(new Runnable() {
+            @Override
+            public void run() {
+                final MediaPlayer newPlayer;
+                try {
+                    newPlayer = MediaPlayerPool.obtain(vlc);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "failed to create preload player", e);
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            failed = true;
+                        }
+                    });
+                    return;
+                }
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPlayerCreated(newPlayer);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 后台取得播放器后开始缓冲（主线程）；已取消时直接回收
+     */
+    private void onPlayerCreated(final MediaPlayer newPlayer) {
+        if (cancelled) {
+            NativeLifecycle.execute(new Runnable() {
+                @Override
+                public void run() {
+                    MediaPlayerPool.recycle(newPlayer);
+                }
+            });
+            return;
+        }
+        player = newPlayer;
+        newPlayer.setEventListener(this);
+        newPlayer.setVolume(0);
+        newPlayer.setMedia(media);
+        newPlayer.play();
+    }
+
+    /**
+     * 是否已缓冲完毕并暂停在开头
+     *
+     * @return 是否已就绪
+     */
+    boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 是否正在预加载该地址（失败的不算）
+     *
+     * @param uri 视频地址
+     * @return 是否正在预加载
+     */
+    boolean isLoading(Uri uri) {
+        return !failed && this.uri.equals(uri);
+    }
+
+    /**
+     * 是否可以被接管（打开失败或播放器尚未取得的不可接管）
+     *
+     * @param uri 待播放的地址
+     * @return 是否可以接管
+     */
+    boolean canHandOver(Uri uri) {
+        return !failed && player != null && this.uri.equals(uri);
+    }
+
+    /**
+     * 接管播放器和媒体，之后由调用方负责回收
+     * 播放器恢复音量和视频轨道，但仍处于暂停（或尚在缓冲）状态，需要调用方设置事件监听和视频输出后再 play
+     *
+     * @return 预加载的播放器
+     */
+    MediaPlayer handOverPlayer() {
+        MediaPlayer player = this.player;
+        this.player = null;
+        player.setEventListener(null);
+        player.setVolume(100);
+        if (ready) {
+            player.setVideoTrackEnabled(true);
+        }
+        return player;
+    }
+
+    /**
+     * 接管媒体，之后由调用方负责释放
+     *
+     * @return 预加载的媒体
+     */
+    Media handOverMedia() {
+        Media media = this.media;
+        this.media = null;
+        return media;
+    }
+
+    /**
+     * 停止处理播放器事件（主线程调用），之后可在其他线程调用 {@link #release()}
+     */
+    void cancel() {
+        cancelled = true;
+        if (player != null) {
+            player.setEventListener(null);
+        }
+    }
+
+    /**
+     * 放弃预加载，回收播放器并释放媒体
+     */
+    void release() {
+        if (player != null) {
+            MediaPlayerPool.recycle(player);
+            player = null;
+        }
+        if (media != null && !media.isReleased()) {
+            media.release();
+        }
+        media = null;
+    }
+
+    @Override
+    public void onEvent(MediaPlayer.Event event) {
+        if (cancelled) {
+            return;
+        }
+        switch (event.type) {
+            case MediaPlayer.Event.Playing:
+                if (!ready) {
+                    ready = true;
+                    player.setVideoTrackEnabled(false);
+                    player.pause();
+                }
+                break;
+            case MediaPlayer.Event.EncounteredError:
+                failed = true;
+                break;
+            default:
+                break;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package tech.yaog.widgets;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+
+/**
+ * 把 assets 中的视频暂存到文件系统，供 {@link VlcVideoView#setVideoPath(String)} 播放.
+ * libvlc 的 fd:// 输入总是从文件开头读写偏移，而 APK 中资源的描述符带有起始偏移，不能直接交给 libvlc，因此仍需复制一次：
+ * <ul>
+ * <li>未压缩的资源通过 {@link AssetFileDescriptor} 的 {@link FileChannel} 用 {@link FileChannel#transferFrom} 复制，不经过 Java 堆</li>
+ * <li>复制结果的大小、CRC32 和应用更新时间记录在清单中，资源未变时直接使用已有文件；应用更新后大小未变的，比较校验和再决定是否复制</li>
+ * <li>{@link #stageAsync(String, Callback)} 在后台线程执行，结果在主线程回调</li>
+ * </ul>
+ */
+public class MediaStaging {
+
+    private static final String PREFERENCES = "tech.yaog.widgets.staging";
+    private static final long TRANSFER_CHUNK = 8 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Context context;
+    private final File dir;
+    private final SharedPreferences manifest;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "vlc-staging");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * 暂存到应用私有目录
+     *
+     * @param context 上下文
+     */
+    public MediaStaging(Context context) {
+        this(context, new File(context.getFilesDir(), "vlc-staging"));
+    }
+
+    /**
+     * @param context 上下文
+     * @param dir     暂存目录
+     */
+    public MediaStaging(Context context, File dir) {
+        this.context = context.getApplicationContext();
+        this.dir = dir;
+        this.manifest = this.context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * 暂存资源（阻塞，不要在主线程调用）
+     *
+     * @param assetName 资源名
+     * @return 暂存后的文件
+     * @throws IOException 资源不存在或复制失败
+     */
+    public synchronized File stage(String assetName) throws IOException {
+        File target = new File(dir, assetName);
+        long size = assetSize(assetName);
+        long appVersion = appVersion();
+        Record record = Record.parse(manifest.getString(manifestKey(target), null));
+        if (record != null && record.size == size && target.length() == size) {
+            if (record.appVersion == appVersion) {
+                return target;
+            }
+            // 应用已更新但大小未变，内容相同则不必复制
+            if (record.crc == assetCrc(assetName)) {
+                saveRecord(target, new Record(size, record.crc, appVersion));
+                return target;
+            }
+        }
+        copy(assetName, target);
+        saveRecord(target, new Record(target.length(), fileCrc(target), appVersion));
+        return target;
+    }
+
+    /**
+     * 在后台暂存资源
+     *
+     * @param assetName 资源名
+     * @param callback  结果回调（主线程）
+     */
+    public void stageAsync(final String assetName, final Callback callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File file = null;
+                IOException error = null;
+                try {
+                    file = stage(assetName);
+                } catch (IOException e) {
+                    error = e;
+                }
+                final File staged = file;
+                final IOException failure = error;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (failure == null) {
+                            callback.onStaged(assetName, staged);
+                        } else {
+                            callback.onError(assetName, failure);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void copy(String assetName, File target) throws IOException {
+        File parent = target.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        File temp = new File(target.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            FileChannel destination = out.getChannel();
+            AssetFileDescriptor afd = openFd(assetName);
+            if (afd != null) {
+                // 通道位置已在资源起点，必须按资源长度复制，否则会读到 APK 中后面的内容
+                FileInputStream in = afd.createInputStream();
+                try {
+                    transfer(destination, in.getChannel(), afd.getLength());
+                } finally {
+                    in.close();
+                }
+            } else {
+                InputStream in = context.getAssets().open(assetName, AssetManager.ACCESS_STREAMING);
+                try {
+                    transfer(destination, Channels.newChannel(in), Long.MAX_VALUE);
+                } finally {
+                    in.close();
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(target)) {
+            target.delete();
+            if (!temp.renameTo(target)) {
+                temp.delete();
+                throw new IOException("cannot rename " + temp + " to " + target);
+            }
+        }
+    }
+
+    private static void transfer(FileChannel destination, ReadableByteChannel source, long length) throws IOException {
+        long position = 0;
+        while (position < length) {
+            long transferred = destination.transferFrom(source, position, Math.min(length - position, TRANSFER_CHUNK));
+            if (transferred <= 0) {
+                break;
+            }
+            position += transferred;
+        }
+    }
+
+    /**
+     * 压缩存储的资源没有独立的描述符
+     *
+     * @return 资源描述符，资源被压缩时返回 null
+     */
+    private AssetFileDescriptor openFd(String assetName) {
+        try {
+            return context.getAssets().openFd(assetName);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private long assetSize(String assetName) throws IOException {
+        AssetFileDescriptor afd = openFd(assetName);
+        if (afd != null) {
+            try {
+                return afd.getLength();
+            } finally {
+                afd.close();
+            }
+        }
+        InputStream in = context.getAssets().open(assetName, AssetManager.ACCESS_STREAMING);
+        try {
+            // 压缩资源的 available() 返回解压后的总长度
+            return in.available();
+        } finally {
+            in.close();
+        }
+    }
+
+    private long assetCrc(String assetName) throws IOException {
+        return crc(context.getAssets().open(assetName, AssetManager.ACCESS_STREAMING));
+    }
+
+    private static long fileCrc(File file) throws IOException {
+        try {
+            return crc(new FileInputStream(file));
+        } catch (FileNotFoundException e) {
+            return -1;
+        }
+    }
+
+    private static long crc(InputStream in) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                crc.update(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return crc.getValue();
+    }
+
+    private long appVersion() {
+        try {
+            return context.getPackageManager().getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return 0;
+        }
+    }
+
+    private static String manifestKey(File target) {
+        return target.getAbsolutePath();
+    }
+
+    private void saveRecord(File target, Record record) {
+        manifest.edit().putString(manifestKey(target), record.toString()).apply();
+    }
+
+    /**
+     * 清单中的一条记录
+     */
+    private static class Record {
+        private final long size;
+        private final long crc;
+        private final long appVersion;
+
+        private Record(long size, long crc, long appVersion) {
+            this.size = size;
+            this.crc = crc;
+            this.appVersion = appVersion;
+        }
+
+        private static Record parse(String value) {
+            if (value == null) {
+                return null;
+            }
+            String[] parts = value.split(",");
+            if (parts.length != 3) {
+                return null;
+            }
+            try {
+                return new Record(Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return size + "," + crc + "," + appVersion;
+        }
+    }
+
+    /**
+     * 暂存结果回调
+     */
+    public interface Callback {
+        /**
+         * 暂存完成
+         *
+         * @param assetName 资源名
+         * @param file      暂存后的文件
+         */
+        void onStaged(String assetName, File file);
+
+        /**
+         * 暂存失败
+         *
+         * @param assetName 资源名
+         * @param e         错误
+         */
+        void onError(String assetName, IOException e);
+    }
+}
@@ -0,0 +1,47 @@
+package tech.yaog.widgets;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * libvlc 原生对象的创建/释放线程.
+ * 创建 {@link org.videolan.libvlc.LibVLC} / {@link org.videolan.libvlc.MediaPlayer} 以及 release 都可能阻塞数百毫秒，
+ * 统一交给同一个后台线程按提交顺序执行，主线程只负责绑定视图和驱动状态机.
+ */
+final class NativeLifecycle {
+
+    private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "vlc-lifecycle");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private NativeLifecycle() {
+    }
+
+    /**
+     * 在后台线程执行
+     *
+     * @param task 任务
+     */
+    static void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * 延迟后在后台线程执行
+     *
+     * @param task  任务
+     * @param delay 延迟(ms)
+     * @return 可用于取消的句柄
+     */
+    static ScheduledFuture<?> schedule(Runnable task, long delay) {
+        return executor.schedule(task, delay, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,412 @@
+package tech.yaog.widgets;
+
+import org.videolan.libvlc.Media;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 播放性能统计.
+ * 记录起播耗时、卡顿次数与时长、跳转耗时，以及 {@link Media#getStats()} 中的解码/显示/丢帧数.
+ * 计数器均为原子变量，{@link #snapshot()} 可在任意线程调用；帧统计由后台线程定期采样，不在 UI 线程访问原生接口.
+ * 时间参数均为单调时钟的毫秒数，由 {@link VlcVideoView} 传入.
+ */
+public class PlaybackMetrics {
+
+    /**
+     * 帧统计的采样间隔(ms)
+     */
+    private static final long SAMPLE_INTERVAL = 1000;
+
+    private static final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "vlc-metrics");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final AtomicLong startupCount = new AtomicLong();
+    private final AtomicLong startupTotal = new AtomicLong();
+    private final AtomicLong startupLast = new AtomicLong(-1);
+    private final AtomicLong rebufferCount = new AtomicLong();
+    private final AtomicLong rebufferTotal = new AtomicLong();
+    private final AtomicLong playingTotal = new AtomicLong();
+    private final AtomicLong seekCount = new AtomicLong();
+    private final AtomicLong seekTotal = new AtomicLong();
+    private final AtomicLong seekLast = new AtomicLong(-1);
+    private final AtomicLong decodedFrames = new AtomicLong();
+    private final AtomicLong displayedFrames = new AtomicLong();
+    private final AtomicLong lostFrames = new AtomicLong();
+    private final AtomicLong readBytes = new AtomicLong();
+    private final AtomicLong inputBitrate = new AtomicLong();
+    private final Observer observer;
+
+    // 以下字段只在播放器事件线程访问
+    private long startTime = -1;
+    private long playingSince = -1;
+    private long stallSince = -1;
+    private long seekSince = -1;
+
+    /**
+     * 只保护下面两个字段的切换，不在持锁时调用原生接口
+     */
+    private final Object sampleLock = new Object();
+    private Media sampledMedia;
+    private ScheduledFuture<?> sampleTask;
+
+    // 以下字段只在采样线程访问
+    private Media lastMedia;
+    private long lastReadBytes = -1;
+    private long lastSampleTime;
+
+    public PlaybackMetrics() {
+        this(null);
+    }
+
+    /**
+     * @param observer 观测数据回调
+     */
+    PlaybackMetrics(Observer observer) {
+        this.observer = observer;
+    }
+
+    void markStart(long now) {
+        startTime = now;
+    }
+
+    void markSeek(long now) {
+        seekSince = now;
+    }
+
+    void onPlayingStarted(long now) {
+        if (startTime >= 0) {
+            long latency = now - startTime;
+            startupLast.set(latency);
+            startupTotal.addAndGet(latency);
+            startupCount.incrementAndGet();
+            startTime = -1;
+        }
+        if (playingSince < 0) {
+            playingSince = now;
+        }
+    }
+
+    void onPlayingStopped(long now) {
+        if (playingSince >= 0) {
+            playingTotal.addAndGet(now - playingSince);
+            playingSince = -1;
+        }
+        endStall(now);
+    }
+
+    void onBuffering(float percent, boolean playing, long now) {
+        if (percent < 100f) {
+            if (playing && stallSince < 0) {
+                stallSince = now;
+                rebufferCount.incrementAndGet();
+            }
+        } else {
+            endStall(now);
+        }
+    }
+
+    void onTimeChanged(long now) {
+        if (seekSince >= 0) {
+            long latency = now - seekSince;
+            seekLast.set(latency);
+            seekTotal.addAndGet(latency);
+            seekCount.incrementAndGet();
+            seekSince = -1;
+        }
+    }
+
+    private void endStall(long now) {
+        if (stallSince >= 0) {
+            long duration = now - stallSince;
+            rebufferTotal.addAndGet(duration);
+            stallSince = -1;
+            if (observer != null) {
+                observer.onRebuffer(duration);
+            }
+        }
+    }
+
+    /**
+     * 开始对媒体的帧统计采样
+     *
+     * @param media 正在播放的媒体
+     */
+    void attach(Media media) {
+        synchronized (sampleLock) {
+            detachLocked();
+            sampledMedia = media;
+            sampleTask = sampler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    sample();
+                }
+            }, SAMPLE_INTERVAL, SAMPLE_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 停止采样，须在释放媒体之前调用.
+     * 最后一次采样在采样线程上进行，期间持有媒体的引用，调用方可以立即释放媒体
+     */
+    void detach() {
+        final Media media;
+        synchronized (sampleLock) {
+            media = sampledMedia;
+            detachLocked();
+        }
+        if (media != null && media.retain()) {
+            sampler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        sample(media);
+                    } finally {
+                        media.release();
+                    }
+                }
+            });
+        }
+    }
+
+    private void detachLocked() {
+        if (sampleTask != null) {
+            sampleTask.cancel(false);
+            sampleTask = null;
+        }
+        sampledMedia = null;
+    }
+
+    private void sample() {
+        Media media;
+        synchronized (sampleLock) {
+            media = sampledMedia;
+            if (media == null || !media.retain()) {
+                return;
+            }
+        }
+        try {
+            sample(media);
+        } finally {
+            media.release();
+        }
+    }
+
+    /**
+     * 读取帧统计（采样线程），调用方持有媒体的引用
+     */
+    private void sample(Media media) {
+        if (media.isReleased()) {
+            return;
+        }
+        Media.Stats stats = media.getStats();
+        if (stats == null) {
+            return;
+        }
+        decodedFrames.set(stats.decodedVideo);
+        displayedFrames.set(stats.displayedPictures);
+        lostFrames.set(stats.lostPictures);
+        // readBytes 在原生层为 int，超过 2GB 后回绕，按无符号数处理
+        long read = stats.readBytes & 0xffffffffL;
+        readBytes.set(read);
+        // 码率的单位为 字节/微秒；inputBitrate 是输入读取速率，媒体本身的码率以解复用消耗的速率为准
+        inputBitrate.set((long) (stats.inputBitrate * 8000000f));
+        long bitrate = (long) (stats.demuxBitrate * 8000000f);
+
+        long now = System.nanoTime();
+        if (media != lastMedia) {
+            lastMedia = media;
+            lastReadBytes = -1;
+        }
+        if (observer != null && lastReadBytes >= 0 && now > lastSampleTime) {
+            long delta = read - lastReadBytes;
+            if (delta < 0) {
+                // 无符号值也回绕了
+                delta += 1L << 32;
+            }
+            long readRate = delta * 8 * 1000000000L / (now - lastSampleTime);
+            observer.onThroughput(readRate, bitrate);
+        }
+        lastReadBytes = read;
+        lastSampleTime = now;
+    }
+
+    /**
+     * 清零所有计数
+     */
+    public void reset() {
+        startupCount.set(0);
+        startupTotal.set(0);
+        startupLast.set(-1);
+        rebufferCount.set(0);
+        rebufferTotal.set(0);
+        playingTotal.set(0);
+        seekCount.set(0);
+        seekTotal.set(0);
+        seekLast.set(-1);
+        decodedFrames.set(0);
+        displayedFrames.set(0);
+        lostFrames.set(0);
+        readBytes.set(0);
+        inputBitrate.set(0);
+    }
+
+    /**
+     * 取得当前统计数据的快照
+     *
+     * @return 统计数据
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * 观测数据回调
+     */
+    interface Observer {
+        /**
+         * 播放期间定期调用（统计线程）
+         *
+         * @param readRate 采样间隔内的读取速率(bit/s)
+         * @param bitrate  媒体码率(bit/s)，按解复用消耗数据的速率估计
+         */
+        void onThroughput(long readRate, long bitrate);
+
+        /**
+         * 一次卡顿结束（播放器事件线程）
+         *
+         * @param duration 卡顿时长(ms)
+         */
+        void onRebuffer(long duration);
+    }
+
+    /**
+     * 统计数据快照
+     */
+    public static final class Snapshot {
+        /**
+         * 起播次数
+         */
+        public final long startupCount;
+        /**
+         * 最近一次从 start() 到开始播放的耗时(ms)，-1 表示尚无数据
+         */
+        public final long startupLatency;
+        /**
+         * 平均起播耗时(ms)
+         */
+        public final long averageStartupLatency;
+        /**
+         * 播放中卡顿的次数
+         */
+        public final long rebufferCount;
+        /**
+         * 播放中卡顿的总时长(ms)
+         */
+        public final long rebufferDuration;
+        /**
+         * 处于播放状态的总时长(ms)
+         */
+        public final long playingDuration;
+        /**
+         * 跳转次数
+         */
+        public final long seekCount;
+        /**
+         * 最近一次跳转的耗时(ms)，-1 表示尚无数据
+         */
+        public final long seekLatency;
+        /**
+         * 平均跳转耗时(ms)
+         */
+        public final long averageSeekLatency;
+        /**
+         * 已解码的视频帧数（当前媒体）
+         */
+        public final long decodedFrames;
+        /**
+         * 已显示的视频帧数（当前媒体）
+         */
+        public final long displayedFrames;
+        /**
+         * 丢弃的视频帧数（当前媒体）
+         */
+        public final long lostFrames;
+        /**
+         * 已读取的字节数（当前媒体）
+         */
+        public final long readBytes;
+        /**
+         * 输入码率(bit/s)
+         */
+        public final long inputBitrate;
+
+        private Snapshot(PlaybackMetrics metrics) {
+            startupCount = metrics.startupCount.get();
+            startupLatency = metrics.startupLast.get();
+            averageStartupLatency = startupCount > 0 ? metrics.startupTotal.get() / startupCount : -1;
+            rebufferCount = metrics.rebufferCount.get();
+            rebufferDuration = metrics.rebufferTotal.get();
+            playingDuration = metrics.playingTotal.get();
+            seekCount = metrics.seekCount.get();
+            seekLatency = metrics.seekLast.get();
+            averageSeekLatency = seekCount > 0 ? metrics.seekTotal.get() / seekCount : -1;
+            decodedFrames = metrics.decodedFrames.get();
+            displayedFrames = metrics.displayedFrames.get();
+            lostFrames = metrics.lostFrames.get();
+            readBytes = metrics.readBytes.get();
+            inputBitrate = metrics.inputBitrate.get();
+        }
+
+        /**
+         * 卡顿时长占播放时长的比例
+         *
+         * @return 卡顿比例 (0 - 1)
+         */
+        public float getRebufferRatio() {
+            return playingDuration > 0 ? (float) rebufferDuration / playingDuration : 0f;
+        }
+
+        /**
+         * 导出为键值对，便于上报
+         *
+         * @return 统计数据
+         */
+        public Map<String, Number> toMap() {
+            Map<String, Number> map = new LinkedHashMap<>();
+            map.put("startup_count", startupCount);
+            map.put("startup_latency_ms", startupLatency);
+            map.put("startup_latency_avg_ms", averageStartupLatency);
+            map.put("rebuffer_count", rebufferCount);
+            map.put("rebuffer_duration_ms", rebufferDuration);
+            map.put("rebuffer_ratio", getRebufferRatio());
+            map.put("playing_duration_ms", playingDuration);
+            map.put("seek_count", seekCount);
+            map.put("seek_latency_ms", seekLatency);
+            map.put("seek_latency_avg_ms", averageSeekLatency);
+            map.put("frames_decoded", decodedFrames);
+            map.put("frames_displayed", displayedFrames);
+            map.put("frames_lost", lostFrames);
+            map.put("read_bytes", readBytes);
+            map.put("input_bitrate_bps", inputBitrate);
+            return map;
+        }
+
+        @Override
+        public String toString() {
+            return toMap().toString();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package tech.yaog.widgets;
+
+/**
+ * 驱动 {@link VlcVideoView} 状态迁移的事件
+ */
+enum PlayerEvent {
+    Attach,
+    Detach,
+    AskForPlay,
+    SetSubtitle,
+    Play,
+    Stop,
+    Stopped,
+    Pause,
+    Resume,
+    End,
+    Error
+}
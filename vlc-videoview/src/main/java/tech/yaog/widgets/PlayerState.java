@@ -0,0 +1,14 @@
+package tech.yaog.widgets;
+
+/**
+ * {@link VlcVideoView} 的播放状态
+ */
+enum PlayerState {
+    WaitingAttach,
+    WaitingAttachPlay,
+    Attached,
+    Buffering,
+    Playing,
+    Stopping,
+    Paused
+}
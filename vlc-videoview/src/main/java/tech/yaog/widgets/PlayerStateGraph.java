@@ -0,0 +1,198 @@
+package tech.yaog.widgets;
+
+import tech.yaog.utils.statemachine.State;
+import tech.yaog.utils.statemachine.StateMachine;
+
+/**
+ * {@link VlcVideoView} 的状态迁移图.
+ * 只描述状态与事件的关系，具体动作交给 {@link Actions}，不依赖 Android 和 libvlc.
+ */
+final class PlayerStateGraph {
+
+    private PlayerStateGraph() {
+    }
+
+    /**
+     * 状态迁移时执行的动作
+     */
+    interface Actions {
+        /**
+         * 进入新状态（在该状态的其他动作之前调用）
+         *
+         * @param state 新状态
+         */
+        void onStateEntered(PlayerState state);
+
+        /**
+         * 打开当前媒体并开始播放
+         */
+        void openMedia();
+
+        /**
+         * 应用当前字幕设置
+         */
+        void applySubtitle();
+
+        /**
+         * 已开始播放
+         */
+        void onStarted();
+
+        /**
+         * 播放完成
+         */
+        void onEnded();
+
+        /**
+         * 已停止
+         */
+        void onStopped();
+
+        /**
+         * 出错
+         */
+        void onError();
+
+        /**
+         * 停止播放器
+         */
+        void stopPlayer();
+
+        /**
+         * 暂停播放器
+         */
+        void pausePlayer();
+
+        /**
+         * 恢复播放器
+         */
+        void resumePlayer();
+    }
+
+    /**
+     * 创建并启动状态机，初始状态为 {@link PlayerState#WaitingAttach}
+     *
+     * @param actions 动作
+     * @return 状态机
+     */
+    static StateMachine<PlayerState, PlayerEvent> create(final Actions actions) {
+        State.Handler applySubtitle = new State.Handler() {
+            @Override
+            public void handle(Object... data) {
+                actions.applySubtitle();
+            }
+        };
+        State.Handler error = new State.Handler() {
+            @Override
+            public void handle(Object... data) {
+                actions.onError();
+            }
+        };
+        State.Handler stopped = new State.Handler() {
+            @Override
+            public void handle(Object... data) {
+                actions.onStopped();
+            }
+        };
+
+        State<PlayerState, PlayerEvent> waitingAttach = new State<PlayerState, PlayerEvent>(PlayerState.WaitingAttach)
+                .onEntry(entered(actions, PlayerState.WaitingAttach))
+                .onEvent(PlayerEvent.Attach, PlayerState.Attached)
+                .onEvent(PlayerEvent.AskForPlay, PlayerState.WaitingAttachPlay);
+
+        State<PlayerState, PlayerEvent> waitingAttachPlay = new State<PlayerState, PlayerEvent>(PlayerState.WaitingAttachPlay)
+                .onEntry(entered(actions, PlayerState.WaitingAttachPlay))
+                .onEvent(PlayerEvent.Attach, PlayerState.Buffering);
+
+        State<PlayerState, PlayerEvent> attached = new State<PlayerState, PlayerEvent>(PlayerState.Attached)
+                .onEntry(entered(actions, PlayerState.Attached))
+                .onEvent(PlayerEvent.AskForPlay, PlayerState.Buffering)
+                .onEvent(PlayerEvent.Detach, PlayerState.WaitingAttach);
+
+        State<PlayerState, PlayerEvent> buffering = new State<PlayerState, PlayerEvent>(PlayerState.Buffering)
+                .onEntry(new State.Handler() {
+                    @Override
+                    public void handle(Object... data) {
+                        actions.onStateEntered(PlayerState.Buffering);
+                        actions.openMedia();
+                    }
+                })
+                .onEvent(PlayerEvent.AskForPlay, new State.Handler() {
+                    @Override
+                    public void handle(Object... data) {
+                        actions.openMedia();
+                    }
+                })
+                .onEvent(PlayerEvent.SetSubtitle, applySubtitle)
+                .onEvent(PlayerEvent.Play, PlayerState.Playing, new State.Handler() {
+                    @Override
+                    public void handle(Object... data) {
+                        actions.onStarted();
+                    }
+                })
+                .onEvent(PlayerEvent.Pause, PlayerState.Paused)
+                .onEvent(PlayerEvent.Detach, PlayerState.WaitingAttachPlay)
+                .onEvent(PlayerEvent.Error, PlayerState.Attached, error);
+
+        State<PlayerState, PlayerEvent> playing = new State<PlayerState, PlayerEvent>(PlayerState.Playing)
+                .onEntry(entered(actions, PlayerState.Playing))
+                .onEvent(PlayerEvent.End, PlayerState.Attached, new State.Handler() {
+                    @Override
+                    public void handle(Object... data) {
+                        actions.onEnded();
+                    }
+                })
+                .onEvent(PlayerEvent.Stop, PlayerState.Stopping)
+                .onEvent(PlayerEvent.AskForPlay, PlayerState.Buffering)
+                .onEvent(PlayerEvent.Pause, PlayerState.Paused)
+                .onEvent(PlayerEvent.SetSubtitle, applySubtitle)
+                .onEvent(PlayerEvent.Detach, PlayerState.WaitingAttachPlay)
+                .onEvent(PlayerEvent.Error, PlayerState.Attached, error);
+
+        State<PlayerState, PlayerEvent> stopping = new State<PlayerState, PlayerEvent>(PlayerState.Stopping)
+                .onEntry(new State.Handler() {
+                    @Override
+                    public void handle(Object... data) {
+                        actions.onStateEntered(PlayerState.Stopping);
+                        actions.stopPlayer();
+                    }
+                })
+                .onEvent(PlayerEvent.Stopped, PlayerState.Attached, stopped)
+                .onEvent(PlayerEvent.Detach, PlayerState.WaitingAttach, stopped)
+                .onEvent(PlayerEvent.Error, PlayerState.Attached, error);
+
+        State<PlayerState, PlayerEvent> paused = new State<PlayerState, PlayerEvent>(PlayerState.Paused)
+                .onEntry(new State.Handler() {
+                    @Override
+                    public void handle(Object... data) {
+                        actions.onStateEntered(PlayerState.Paused);
+                        actions.pausePlayer();
+                    }
+                })
+                .onEvent(PlayerEvent.End, PlayerState.Attached)
+                .onEvent(PlayerEvent.Stop, PlayerState.Stopping)
+                .onEvent(PlayerEvent.AskForPlay, PlayerState.Buffering)
+                .onEvent(PlayerEvent.SetSubtitle, applySubtitle)
+                .onEvent(PlayerEvent.Detach, PlayerState.WaitingAttach)
+                .onEvent(PlayerEvent.Resume, PlayerState.Playing, new State.Handler() {
+                    @Override
+                    public void handle(Object... data) {
+                        actions.resumePlayer();
+                    }
+                });
+
+        StateMachine<PlayerState, PlayerEvent> stateMachine = new StateMachine<>();
+        stateMachine.setStates(waitingAttach, waitingAttachPlay, attached, buffering, playing, stopping, paused);
+        stateMachine.start();
+        return stateMachine;
+    }
+
+    private static State.Handler entered(final Actions actions, final PlayerState state) {
+        return new State.Handler() {
+            @Override
+            public void handle(Object... data) {
+                actions.onStateEntered(state);
+            }
+        };
+    }
+}
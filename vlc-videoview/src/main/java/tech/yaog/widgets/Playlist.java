@@ -0,0 +1,193 @@
+package tech.yaog.widgets;
+
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 播放队列.
+ * 由 {@link VlcVideoView} 持有，记录当前播放位置并按循环模式决定下一项.
+ */
+public class Playlist {
+
+    /**
+     * 循环模式
+     */
+    public enum RepeatMode {
+        /**
+         * 不循环，播放到最后一项后停止
+         */
+        None,
+        /**
+         * 单项循环
+         */
+        One,
+        /**
+         * 列表循环
+         */
+        All
+    }
+
+    private final List<Uri> items = new ArrayList<>();
+    private int index = -1;
+    private RepeatMode repeatMode = RepeatMode.None;
+
+    /**
+     * 添加到队尾
+     *
+     * @param uri 视频地址
+     */
+    public synchronized void add(Uri uri) {
+        items.add(uri);
+        if (index < 0) {
+            index = 0;
+        }
+    }
+
+    /**
+     * 批量添加到队尾
+     *
+     * @param uris 视频地址
+     */
+    public synchronized void addAll(Collection<Uri> uris) {
+        items.addAll(uris);
+        if (index < 0 && !items.isEmpty()) {
+            index = 0;
+        }
+    }
+
+    /**
+     * 移除指定项
+     *
+     * @param position 位置
+     */
+    public synchronized void remove(int position) {
+        items.remove(position);
+        if (position < index || index >= items.size()) {
+            index--;
+        }
+        if (index < 0 && !items.isEmpty()) {
+            index = 0;
+        }
+    }
+
+    /**
+     * 清空队列
+     */
+    public synchronized void clear() {
+        items.clear();
+        index = -1;
+    }
+
+    /**
+     * 队列长度
+     *
+     * @return 队列长度
+     */
+    public synchronized int size() {
+        return items.size();
+    }
+
+    /**
+     * 队列是否为空
+     *
+     * @return 队列是否为空
+     */
+    public synchronized boolean isEmpty() {
+        return items.isEmpty();
+    }
+
+    /**
+     * 取得指定项
+     *
+     * @param position 位置
+     * @return 视频地址
+     */
+    public synchronized Uri get(int position) {
+        return items.get(position);
+    }
+
+    /**
+     * 当前项位置
+     *
+     * @return 当前项位置，队列为空时为 -1
+     */
+    public synchronized int getIndex() {
+        return index;
+    }
+
+    /**
+     * 设置当前项
+     *
+     * @param index 位置
+     */
+    public synchronized void setIndex(int index) {
+        if (index < 0 || index >= items.size()) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + items.size());
+        }
+        this.index = index;
+    }
+
+    /**
+     * 当前项
+     *
+     * @return 视频地址，队列为空时为 null
+     */
+    public synchronized Uri current() {
+        return index >= 0 ? items.get(index) : null;
+    }
+
+    /**
+     * 按循环模式计算当前项播放完成后的下一项
+     *
+     * @return 下一项位置，没有下一项时为 -1
+     */
+    public synchronized int nextIndex() {
+        if (index < 0) {
+            return -1;
+        }
+        switch (repeatMode) {
+            case One:
+                return index;
+            case All:
+                return (index + 1) % items.size();
+            default:
+                return index + 1 < items.size() ? index + 1 : -1;
+        }
+    }
+
+    /**
+     * 计算上一项
+     *
+     * @return 上一项位置，没有上一项时为 -1
+     */
+    public synchronized int previousIndex() {
+        if (index < 0) {
+            return -1;
+        }
+        if (index > 0) {
+            return index - 1;
+        }
+        return repeatMode == RepeatMode.All ? items.size() - 1 : -1;
+    }
+
+    /**
+     * 下一项（不移动当前位置）
+     *
+     * @return 视频地址，没有下一项时为 null
+     */
+    public synchronized Uri peekNext() {
+        int next = nextIndex();
+        return next >= 0 ? items.get(next) : null;
+    }
+
+    public synchronized RepeatMode getRepeatMode() {
+        return repeatMode;
+    }
+
+    public synchronized void setRepeatMode(RepeatMode repeatMode) {
+        this.repeatMode = repeatMode;
+    }
+}
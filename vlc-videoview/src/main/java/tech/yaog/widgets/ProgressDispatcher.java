@@ -0,0 +1,132 @@
+package tech.yaog.widgets;
+
+/**
+ * 高频事件（播放位置、缓冲比例）的分发路径.
+ * 不经过状态机，不产生临时对象：更新统计、经节流器过滤后回调监听器，被合并的值由 {@link Scheduler} 延后投递.
+ * 不依赖 Android 和 libvlc.
+ */
+final class ProgressDispatcher {
+
+    /**
+     * 进度监听器
+     */
+    interface Listener {
+        void onBuffering(int percent);
+
+        void onPosition(int msec);
+    }
+
+    /**
+     * 延时任务调度
+     */
+    interface Scheduler {
+        /**
+         * @return 当前单调时钟(ms)，与 {@link #schedule(Runnable, long)} 的延时同一时基
+         */
+        long now();
+
+        /**
+         * @return 统计用的时钟(ms)，传给 {@link PlaybackMetrics}
+         */
+        long realtime();
+
+        void schedule(Runnable task, long delay);
+
+        void cancel(Runnable task);
+    }
+
+    private final PlaybackMetrics metrics;
+    private final Scheduler scheduler;
+    private final ProgressThrottle positionThrottle = new ProgressThrottle();
+    private final ProgressThrottle bufferingThrottle = new ProgressThrottle();
+    private volatile Listener listener;
+
+    private final Runnable positionFlush = new Runnable() {
+        @Override
+        public void run() {
+            double time = positionThrottle.flush(scheduler.now());
+            Listener listener = ProgressDispatcher.this.listener;
+            if (listener != null) {
+                listener.onPosition((int) time);
+            }
+        }
+    };
+
+    private final Runnable bufferingFlush = new Runnable() {
+        @Override
+        public void run() {
+            double percent = bufferingThrottle.flush(scheduler.now());
+            Listener listener = ProgressDispatcher.this.listener;
+            if (listener != null) {
+                listener.onBuffering((int) percent);
+            }
+        }
+    };
+
+    ProgressDispatcher(PlaybackMetrics metrics, Scheduler scheduler) {
+        this.metrics = metrics;
+        this.scheduler = scheduler;
+    }
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @see ProgressThrottle#configure(long, double)
+     */
+    void configure(long interval, int minPositionDelta, float minBufferingDelta) {
+        positionThrottle.configure(interval, minPositionDelta);
+        bufferingThrottle.configure(interval, minBufferingDelta);
+    }
+
+    /**
+     * 缓冲事件，只在 {@link PlayerState#Buffering} 状态回调
+     *
+     * @param percent 缓冲比例
+     * @param state   当前状态
+     */
+    void onBuffering(float percent, PlayerState state) {
+        metrics.onBuffering(percent, state == PlayerState.Playing, scheduler.realtime());
+        long now = scheduler.now();
+        Listener listener = this.listener;
+        if (listener != null && state == PlayerState.Buffering) {
+            long delay = bufferingThrottle.offer(percent, now);
+            if (delay == ProgressThrottle.NOW) {
+                listener.onBuffering((int) percent);
+            } else if (delay > 0) {
+                scheduler.schedule(bufferingFlush, delay);
+            }
+        }
+    }
+
+    /**
+     * 播放位置事件，只在 {@link PlayerState#Playing} 状态回调
+     *
+     * @param time  播放位置(ms)
+     * @param state 当前状态
+     */
+    void onTimeChanged(long time, PlayerState state) {
+        metrics.onTimeChanged(scheduler.realtime());
+        long now = scheduler.now();
+        Listener listener = this.listener;
+        if (listener != null && state == PlayerState.Playing) {
+            long delay = positionThrottle.offer(time, now);
+            if (delay == ProgressThrottle.NOW) {
+                listener.onPosition((int) time);
+            } else if (delay > 0) {
+                scheduler.schedule(positionFlush, delay);
+            }
+        }
+    }
+
+    /**
+     * 丢弃尚未投递的值并清除节流历史
+     */
+    void reset() {
+        scheduler.cancel(positionFlush);
+        scheduler.cancel(bufferingFlush);
+        positionThrottle.reset();
+        bufferingThrottle.reset();
+    }
+}
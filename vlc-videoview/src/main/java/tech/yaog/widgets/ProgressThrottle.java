@@ -0,0 +1,106 @@
+package tech.yaog.widgets;
+
+/**
+ * 进度类回调（位置、缓冲）的节流器.
+ * 限制两次回调的最小间隔和最小变化量，间隔内的中间值合并，只投递最新的一个.
+ * 本类不涉及线程和 Android API，时间由调用方传入.
+ */
+final class ProgressThrottle {
+
+    /**
+     * {@link #offer(double, long)} 返回值：丢弃（变化量不足，或已有待投递的值）
+     */
+    static final long DROP = -1;
+    /**
+     * {@link #offer(double, long)} 返回值：立即投递
+     */
+    static final long NOW = 0;
+
+    private long interval;
+    private double minDelta;
+    private boolean delivered;
+    private long lastTime;
+    private double lastValue;
+    private boolean pending;
+    private double pendingValue;
+
+    ProgressThrottle() {
+    }
+
+    /**
+     * @param interval 最小间隔(ms)
+     * @param minDelta 最小变化量
+     */
+    ProgressThrottle(long interval, double minDelta) {
+        configure(interval, minDelta);
+    }
+
+    /**
+     * 设置节流参数
+     *
+     * @param interval 最小间隔(ms)
+     * @param minDelta 最小变化量
+     */
+    void configure(long interval, double minDelta) {
+        this.interval = Math.max(0, interval);
+        this.minDelta = Math.max(0, minDelta);
+    }
+
+    /**
+     * 提交一个新值
+     *
+     * @param value 新值
+     * @param now   当前时间(ms)
+     * @return {@link #DROP}、{@link #NOW}，或大于 0 的延迟(ms)，到时后调用 {@link #flush(long)} 投递
+     */
+    long offer(double value, long now) {
+        if (pending) {
+            pendingValue = value;
+            return DROP;
+        }
+        if (delivered && Math.abs(value - lastValue) < minDelta) {
+            return DROP;
+        }
+        long elapsed = now - lastTime;
+        if (!delivered || elapsed >= interval) {
+            delivered = true;
+            lastTime = now;
+            lastValue = value;
+            return NOW;
+        }
+        pending = true;
+        pendingValue = value;
+        return interval - elapsed;
+    }
+
+    /**
+     * 是否有待投递的值
+     *
+     * @return 是否有待投递的值
+     */
+    boolean hasPending() {
+        return pending;
+    }
+
+    /**
+     * 取出待投递的值，并记为已投递
+     *
+     * @param now 当前时间(ms)
+     * @return 待投递的值
+     */
+    double flush(long now) {
+        pending = false;
+        delivered = true;
+        lastTime = now;
+        lastValue = pendingValue;
+        return pendingValue;
+    }
+
+    /**
+     * 清除历史，下一个值立即投递
+     */
+    void reset() {
+        delivered = false;
+        pending = false;
+    }
+}
@@ -0,0 +1,415 @@
+package tech.yaog.widgets;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import org.videolan.libvlc.Media;
+import org.videolan.libvlc.MediaPlayer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 外挂字幕管理.
+ * 每个字幕源对每个媒体只作为 slave 添加一次，之后的切换/关闭都通过 {@link MediaPlayer#setSpuTrack(int)} 完成，不再重复打开和解析字幕文件.
+ * 注册后即在后台准备字幕文件：网络字幕下载到本地缓存，本地文件预读一遍，打开媒体时 libvlc 直接读取本地文件.
+ * 除后台准备外只在主线程调用.
+ */
+final class SubtitleManager {
+
+    private static final String TAG = "SubtitleManager";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int TIMEOUT = 15000;
+    /**
+     * 等待字幕轨道出现的最长时间(ms)，字幕打开失败时不会再有轨道变化
+     */
+    private static final long SELECTION_TIMEOUT = 10000;
+    /**
+     * 下载的网络字幕缓存上限
+     */
+    private static final long MAX_CACHE_BYTES = 16 * 1024 * 1024;
+
+    private static final ExecutorService preparer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "vlc-subtitle");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    private final Context context;
+    private final List<Source> sources = new ArrayList<>();
+    /**
+     * 当前媒体上已添加为 slave 的字幕，按添加顺序
+     */
+    private final List<Source> added = new ArrayList<>();
+    private Source selected;
+    private boolean selectionPending;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable selectionTimeout = new Runnable() {
+        @Override
+        public void run() {
+            if (selectionPending) {
+                Log.w(TAG, "subtitle track not found: " + (selected != null ? selected.uri : null));
+                selectionPending = false;
+            }
+        }
+    };
+
+    /**
+     * @param context 上下文，网络字幕下载到其缓存目录
+     */
+    SubtitleManager(Context context) {
+        Context application = context.getApplicationContext();
+        this.context = application != null ? application : context;
+    }
+
+    /**
+     * 注册字幕源（已注册时无操作），并开始在后台准备
+     *
+     * @param uri 字幕地址
+     */
+    void add(Uri uri) {
+        find(uri);
+    }
+
+    /**
+     * 选择字幕，未注册的先注册
+     *
+     * @param uri 字幕地址，null 表示关闭字幕
+     */
+    void select(Uri uri) {
+        selected = uri != null ? find(uri) : null;
+    }
+
+    /**
+     * 移除所有字幕源
+     */
+    void clear() {
+        sources.clear();
+        added.clear();
+        selected = null;
+        setSelectionPending(false);
+    }
+
+    /**
+     * 媒体打开后、开始播放前调用：把所有字幕源各添加一次，选中的字幕由 libvlc 直接启用
+     *
+     * @param player 播放器
+     */
+    void attach(MediaPlayer player) {
+        added.clear();
+        setSelectionPending(false);
+        for (Source source : sources) {
+            source.trackId = -1;
+            addSlave(player, source, source == selected, false);
+        }
+        if (selected == null) {
+            player.setSpuTrack(-1);
+        }
+    }
+
+    /**
+     * 应用当前选择
+     *
+     * @param player 播放器
+     */
+    void apply(MediaPlayer player) {
+        if (selected == null) {
+            setSelectionPending(false);
+            player.setSpuTrack(-1);
+        } else if (!added.contains(selected)) {
+            setSelectionPending(false);
+            addSlave(player, selected, true, true);
+        } else if (resolve(player)) {
+            setSelectionPending(false);
+            player.setSpuTrack(selected.trackId);
+        } else if (!selectionPending) {
+            // 字幕轨道尚未出现，等轨道变化时再设置，超时后放弃
+            setSelectionPending(true);
+        }
+    }
+
+    private void setSelectionPending(boolean pending) {
+        selectionPending = pending;
+        mainHandler.removeCallbacks(selectionTimeout);
+        if (pending) {
+            mainHandler.postDelayed(selectionTimeout, SELECTION_TIMEOUT);
+        }
+    }
+
+    /**
+     * 轨道列表变化时调用
+     *
+     * @param player 播放器
+     */
+    void onTracksChanged(MediaPlayer player) {
+        if (selectionPending) {
+            apply(player);
+        }
+    }
+
+    private Source find(Uri uri) {
+        for (Source source : sources) {
+            if (source.uri.equals(uri)) {
+                return source;
+            }
+        }
+        Source source = new Source(uri);
+        sources.add(source);
+        prepare(source);
+        return source;
+    }
+
+    /**
+     * 添加 slave，libvlc 拒绝的不计入已添加
+     *
+     * @param playing 是否在播放中添加，此时已有的轨道都不属于这个 slave
+     */
+    private void addSlave(MediaPlayer player, Source source, boolean select, boolean playing) {
+        Uri prepared = source.prepared;
+        Uri uri = prepared != null ? prepared : source.uri;
+        source.addedUri = uri;
+        source.minTrackId = playing ? maxTrackId(player) + 1 : 0;
+        if (player.addSlave(Media.Slave.Type.Subtitle, uri, select)) {
+            added.add(source);
+        } else {
+            Log.w(TAG, "cannot add subtitle: " + uri);
+        }
+    }
+
+    private static int maxTrackId(MediaPlayer player) {
+        MediaPlayer.TrackDescription[] tracks = player.getSpuTracks();
+        int max = -1;
+        if (tracks != null) {
+            for (MediaPlayer.TrackDescription track : tracks) {
+                max = Math.max(max, track.id);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * 把选中的字幕源对应到 SPU 轨道.
+     * 先按轨道名称匹配字幕文件名；匹配不到的，按 libvlc 先创建主输入的轨道、再按添加顺序创建 slave 轨道的规律，
+     * 用编号最大的几条未匹配轨道依次对应，并且不早于添加时已有的轨道
+     *
+     * @return 选中的字幕是否已对应到轨道
+     */
+    private boolean resolve(MediaPlayer player) {
+        if (selected.trackId >= 0) {
+            return true;
+        }
+        MediaPlayer.TrackDescription[] tracks = player.getSpuTracks();
+        if (tracks == null) {
+            return false;
+        }
+        int[] ids = new int[tracks.length];
+        int count = 0;
+        for (MediaPlayer.TrackDescription track : tracks) {
+            if (track.id < 0 || isClaimed(track.id)) {
+                continue;
+            }
+            Source source = matchByName(track.name);
+            if (source != null) {
+                source.trackId = track.id;
+            } else {
+                ids[count++] = track.id;
+            }
+        }
+        int unmatched = 0;
+        for (Source source : added) {
+            if (source.trackId < 0) {
+                unmatched++;
+            }
+        }
+        if (unmatched > 0 && count >= unmatched) {
+            Arrays.sort(ids, 0, count);
+            int next = count - unmatched;
+            for (Source source : added) {
+                if (source.trackId < 0 && ids[next] >= source.minTrackId) {
+                    source.trackId = ids[next++];
+                } else if (source.trackId < 0) {
+                    next++;
+                }
+            }
+        }
+        return selected.trackId >= 0;
+    }
+
+    private boolean isClaimed(int trackId) {
+        for (Source source : added) {
+            if (source.trackId == trackId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Source matchByName(String name) {
+        if (name == null) {
+            return null;
+        }
+        for (Source source : added) {
+            if (source.trackId >= 0) {
+                continue;
+            }
+            String file = source.addedUri.getLastPathSegment();
+            String original = source.uri.getLastPathSegment();
+            if ((file != null && name.contains(file)) || (original != null && name.contains(original))) {
+                return source;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 在后台把字幕准备为本地文件
+     */
+    private void prepare(final Source source) {
+        final String scheme = source.uri.getScheme();
+        preparer.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if ("http".equals(scheme) || "https".equals(scheme)) {
+                        source.prepared = download(source.uri);
+                    } else if (scheme == null || "file".equals(scheme)) {
+                        // 预读一遍，打开时直接命中页缓存
+                        drain(new FileInputStream(source.uri.getPath()));
+                    }
+                } catch (IOException ignored) {
+                    // 准备失败时仍按原地址添加，由 libvlc 自行读取
+                }
+            }
+        });
+    }
+
+    private Uri download(Uri uri) throws IOException {
+        String name = MediaCache.keyOf(uri.toString());
+        String last = uri.getLastPathSegment();
+        int dot = last != null ? last.lastIndexOf('.') : -1;
+        if (dot >= 0) {
+            name += last.substring(dot);
+        }
+        File cacheDir = new File(context.getCacheDir(), "vlc-subtitles");
+        File file = new File(cacheDir, name);
+        if (file.exists()) {
+            // 按修改时间淘汰，命中时更新
+            file.setLastModified(System.currentTimeMillis());
+        } else {
+            if (!cacheDir.exists()) {
+                cacheDir.mkdirs();
+            }
+            HttpURLConnection connection = (HttpURLConnection) new URL(uri.toString()).openConnection();
+            connection.setConnectTimeout(TIMEOUT);
+            connection.setReadTimeout(TIMEOUT);
+            File temp = new File(cacheDir, name + ".tmp");
+            try {
+                InputStream in = connection.getInputStream();
+                OutputStream out = new FileOutputStream(temp);
+                try {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int read;
+                    while ((read = in.read(buffer)) >= 0) {
+                        out.write(buffer, 0, read);
+                    }
+                } finally {
+                    out.close();
+                    in.close();
+                }
+            } finally {
+                connection.disconnect();
+            }
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                throw new IOException("cannot rename " + temp);
+            }
+            trimCache(cacheDir, file);
+        }
+        return Uri.fromFile(file);
+    }
+
+    /**
+     * 超出缓存上限时从最久未用的开始删除，刚下载的文件保留
+     */
+    private static void trimCache(File cacheDir, File keep) {
+        File[] files = cacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= MAX_CACHE_BYTES) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long ma = a.lastModified();
+                long mb = b.lastModified();
+                return ma < mb ? -1 : (ma == mb ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (total <= MAX_CACHE_BYTES) {
+                break;
+            }
+            if (!file.equals(keep)) {
+                long length = file.length();
+                if (file.delete()) {
+                    total -= length;
+                }
+            }
+        }
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try {
+            while (in.read(buffer) >= 0) {
+                // 只为预读
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static final class Source {
+        private final Uri uri;
+        private volatile Uri prepared;
+        /**
+         * 实际添加为 slave 的地址
+         */
+        private Uri addedUri;
+        /**
+         * 对应轨道编号的下限
+         */
+        private int minTrackId;
+        private int trackId = -1;
+
+        private Source(Uri uri) {
+            this.uri = uri;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package tech.yaog.widgets;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 进度条预览缩略图.
+ * 在后台线程按时间点截取视频帧，相邻的请求合并为一批处理（同一视频只打开一次），
+ * 结果缩小后放入按字节数限制大小的 LRU 缓存，键为 (视频地址, 时间分段).
+ * <p>
+ * 当前使用的 libvlc 2.x Java 接口没有截图和视频内存回调，因此解码使用系统的
+ * {@link MediaMetadataRetriever}，不占用播放中的 LibVLC 实例.
+ */
+public class ThumbnailExtractor {
+
+    private static final String TAG = ThumbnailExtractor.class.getName();
+    /**
+     * 收集一批请求的等待时间(ms)
+     */
+    private static final long BATCH_DELAY = 50;
+    /**
+     * 最多保留的待处理请求数，超出时丢弃最早的请求并以 null 回调
+     */
+    private static final int MAX_PENDING = 16;
+
+    private final Context context;
+    private final int targetWidth;
+    private final long bucket;
+    private final LruCache<String, Bitmap> cache;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final LinkedHashMap<String, Request> pending = new LinkedHashMap<>();
+    /**
+     * 已取出正在截取的请求，相同的新请求直接等它的结果，由 {@link #pending} 同步
+     */
+    private final Map<String, Request> inFlight = new HashMap<>();
+    private final ScheduledExecutorService executor;
+    private boolean scheduled;
+
+    /**
+     * @param context     上下文
+     * @param maxBytes    缓存的最大字节数
+     * @param targetWidth 缩略图宽度(px)，高度按比例计算
+     * @param bucket      时间分段(ms)，同一分段内的请求共用一张缩略图
+     */
+    public ThumbnailExtractor(Context context, int maxBytes, int targetWidth, long bucket) {
+        this.context = context.getApplicationContext();
+        this.targetWidth = targetWidth;
+        this.bucket = Math.max(1, bucket);
+        this.cache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "vlc-thumbnail");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * 请求缩略图，结果在主线程回调；已缓存时直接回调
+     *
+     * @param uri      视频地址
+     * @param time     时间点(ms)
+     * @param callback 回调
+     */
+    public void request(Uri uri, long time, Callback callback) {
+        long bucketTime = time / bucket * bucket;
+        String key = key(uri, bucketTime);
+        Bitmap cached = cache.get(key);
+        if (cached != null) {
+            callback.onThumbnail(uri, bucketTime, cached);
+            return;
+        }
+        Request evicted = null;
+        synchronized (pending) {
+            Request request = inFlight.get(key);
+            if (request != null) {
+                request.callbacks.add(callback);
+                return;
+            }
+            request = pending.get(key);
+            if (request == null) {
+                request = new Request(key, uri, bucketTime);
+                pending.put(key, request);
+                if (pending.size() > MAX_PENDING) {
+                    Iterator<Request> iterator = pending.values().iterator();
+                    evicted = iterator.next();
+                    iterator.remove();
+                }
+            }
+            request.callbacks.add(callback);
+            if (!scheduled) {
+                scheduled = true;
+                executor.schedule(drain, BATCH_DELAY, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (evicted != null) {
+            deliver(evicted, null);
+        }
+    }
+
+    /**
+     * 取得已缓存的缩略图
+     *
+     * @param uri  视频地址
+     * @param time 时间点(ms)
+     * @return 缩略图，未缓存时为 null
+     */
+    public Bitmap getCached(Uri uri, long time) {
+        return cache.get(key(uri, time / bucket * bucket));
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void clear() {
+        cache.evictAll();
+    }
+
+    /**
+     * 停止后台线程并清空缓存，之后不可再使用
+     */
+    public void release() {
+        synchronized (pending) {
+            pending.clear();
+            inFlight.clear();
+        }
+        executor.shutdownNow();
+        cache.evictAll();
+    }
+
+    private static String key(Uri uri, long bucketTime) {
+        return uri.toString() + '#' + bucketTime;
+    }
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            List<Request> batch;
+            synchronized (pending) {
+                batch = new ArrayList<>(pending.values());
+                inFlight.putAll(pending);
+                pending.clear();
+                scheduled = false;
+            }
+            Map<Uri, List<Request>> byUri = new HashMap<>();
+            for (Request request : batch) {
+                List<Request> requests = byUri.get(request.uri);
+                if (requests == null) {
+                    requests = new ArrayList<>();
+                    byUri.put(request.uri, requests);
+                }
+                requests.add(request);
+            }
+            for (Map.Entry<Uri, List<Request>> entry : byUri.entrySet()) {
+                extract(entry.getKey(), entry.getValue());
+            }
+        }
+    };
+
+    private void extract(Uri uri, List<Request> requests) {
+        Collections.sort(requests, new Comparator<Request>() {
+            @Override
+            public int compare(Request o1, Request o2) {
+                return o1.time < o2.time ? -1 : (o1.time == o2.time ? 0 : 1);
+            }
+        });
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            setDataSource(retriever, uri);
+            for (Request request : requests) {
+                Bitmap bitmap = null;
+                try {
+                    bitmap = scale(retriever.getFrameAtTime(request.time * 1000, MediaMetadataRetriever.OPTION_CLOSEST_SYNC));
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "extract failed: " + uri + " @" + request.time, e);
+                }
+                if (bitmap != null) {
+                    cache.put(request.key, bitmap);
+                }
+                deliver(request, bitmap);
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "open failed: " + uri, e);
+            for (Request request : requests) {
+                deliver(request, null);
+            }
+        } finally {
+            retriever.release();
+        }
+    }
+
+    private void setDataSource(MediaMetadataRetriever retriever, Uri uri) {
+        String scheme = uri.getScheme();
+        if (scheme == null || ContentResolver.SCHEME_FILE.equals(scheme)) {
+            retriever.setDataSource(uri.getPath());
+        } else if ("http".equals(scheme) || "https".equals(scheme)) {
+            retriever.setDataSource(uri.toString(), new HashMap<String, String>());
+        } else {
+            retriever.setDataSource(context, uri);
+        }
+    }
+
+    private Bitmap scale(Bitmap frame) {
+        if (frame == null || frame.getWidth() <= targetWidth) {
+            return frame;
+        }
+        int height = Math.max(1, (int) ((long) frame.getHeight() * targetWidth / frame.getWidth()));
+        Bitmap scaled = Bitmap.createScaledBitmap(frame, targetWidth, height, true);
+        if (scaled != frame) {
+            frame.recycle();
+        }
+        return scaled;
+    }
+
+    private void deliver(final Request request, final Bitmap bitmap) {
+        final List<Callback> callbacks;
+        synchronized (pending) {
+            if (inFlight.get(request.key) == request) {
+                inFlight.remove(request.key);
+            }
+            callbacks = new ArrayList<>(request.callbacks);
+        }
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Callback callback : callbacks) {
+                    callback.onThumbnail(request.uri, request.time, bitmap);
+                }
+            }
+        });
+    }
+
+    private static class Request {
+        private final String key;
+        private final Uri uri;
+        private final long time;
+        private final List<Callback> callbacks = new ArrayList<>(1);
+
+        private Request(String key, Uri uri, long time) {
+            this.key = key;
+            this.uri = uri;
+            this.time = time;
+        }
+    }
+
+    /**
+     * 缩略图回调
+     */
+    public interface Callback {
+        /**
+         * 缩略图已就绪
+         *
+         * @param uri    视频地址
+         * @param time   时间分段的起点(ms)
+         * @param bitmap 缩略图，截取失败或请求因积压被丢弃时为 null
+         */
+        void onThumbnail(Uri uri, long time, Bitmap bitmap);
+    }
+}
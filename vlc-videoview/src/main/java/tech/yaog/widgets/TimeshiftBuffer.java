@@ -0,0 +1,437 @@
+package tech.yaog.widgets;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 直播时移缓冲.
+ * 后台把直播流（HTTP 或 UDP/RTP 承载的 MPEG-TS）持续录制到固定大小的内存映射环形文件中，
+ * 再在 127.0.0.1 上以 HTTP 提供给 libvlc 播放：播放器暂停时录制继续，恢复后从暂停处接着播放；
+ * 跳转时按关键帧索引从窗口内的任意位置重新开始.
+ * 磁盘占用固定为环形文件的大小，内存只有映射的页缓存和少量缓冲区，可以长时间运行.
+ * 只依赖 JDK，可以在 JVM 上配合本地的模拟流测试.
+ */
+public class TimeshiftBuffer {
+
+    /**
+     * 默认环形文件大小(byte)，约为 4Mbps 的流两分钟多
+     */
+    public static final long DEFAULT_CAPACITY = 64L * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int TIMEOUT = 15000;
+    /**
+     * 录制中断后重连的间隔(ms)
+     */
+    private static final long RETRY_DELAY = 1000;
+    /**
+     * 读取方等待新数据的单次超时(ms)
+     */
+    private static final long WAIT_INTERVAL = 500;
+    private static final int RTP_VERSION = 0x80;
+    private static final int RTP_HEADER_SIZE = 12;
+
+    private final File file;
+    private final long capacity;
+    private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "vlc-timeshift");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private ServerSocket serverSocket;
+    private volatile TimeshiftRing ring;
+    private volatile String source;
+    /**
+     * 每次开始录制新的地址时递增，旧的录制线程和读取方据此退出
+     */
+    private volatile int generation;
+
+    /**
+     * @param file 环形文件
+     */
+    public TimeshiftBuffer(File file) {
+        this(file, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param file     环形文件
+     * @param capacity 环形文件大小(byte)，决定可回退的时长
+     */
+    public TimeshiftBuffer(File file, long capacity) {
+        this.file = file;
+        this.capacity = capacity;
+    }
+
+    /**
+     * 启动本地服务（已启动时无操作）
+     *
+     * @throws IOException 无法监听本地端口
+     */
+    public synchronized void start() throws IOException {
+        if (serverSocket != null) {
+            return;
+        }
+        final ServerSocket server = new ServerSocket(0, 16, InetAddress.getByName("127.0.0.1"));
+        serverSocket = server;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                accept(server);
+            }
+        });
+    }
+
+    /**
+     * 停止录制和本地服务
+     */
+    public synchronized void stop() {
+        generation++;
+        source = null;
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException ignored) {
+            }
+            serverSocket = null;
+        }
+        closeRing();
+    }
+
+    /**
+     * 开始录制直播地址；已在录制同一地址时无操作，录制其他地址时丢弃之前的内容.
+     * 接收 Wi-Fi 组播时调用方需要持有 {@code WifiManager.MulticastLock}，否则组播包可能被系统过滤
+     *
+     * @param url 直播地址，支持 http(s):// 和 udp:// / rtp://（可为组播，如 udp://@239.0.0.1:1234）
+     * @throws IOException 无法创建环形文件
+     */
+    public synchronized void record(final String url) throws IOException {
+        if (url.equals(source)) {
+            return;
+        }
+        final int current = ++generation;
+        closeRing();
+        final TimeshiftRing newRing = new TimeshiftRing(file, capacity);
+        ring = newRing;
+        source = url;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                recordLoop(url, newRing, current);
+            }
+        });
+    }
+
+    /**
+     * 是否正在录制该地址
+     *
+     * @param url 直播地址
+     * @return 是否正在录制
+     */
+    public boolean isRecording(String url) {
+        return url != null && url.equals(source);
+    }
+
+    /**
+     * 最新数据的时间
+     *
+     * @return 从开始录制算起的毫秒数，未录制时为 0
+     */
+    public long getLiveTime() {
+        TimeshiftRing ring = this.ring;
+        return ring != null ? ring.getLiveTime() : 0;
+    }
+
+    /**
+     * 可回退到的最早时间
+     *
+     * @return 从开始录制算起的毫秒数，窗口内还没有关键帧时为 -1
+     */
+    public long getWindowStartTime() {
+        TimeshiftRing ring = this.ring;
+        TimeshiftRing.Keyframe keyframe = ring != null ? ring.findKeyframe(0) : null;
+        return keyframe != null ? keyframe.time : -1;
+    }
+
+    /**
+     * 查找跳转位置
+     *
+     * @param time 目标时间(ms，从开始录制算起)，负数表示最新位置
+     * @return 不晚于目标的最后一个关键帧，还没有关键帧时为 null
+     */
+    TimeshiftRing.Keyframe seek(long time) {
+        TimeshiftRing ring = this.ring;
+        return ring != null ? ring.findKeyframe(time) : null;
+    }
+
+    /**
+     * 取得从指定位置开始播放的本地地址
+     *
+     * @param offset {@link TimeshiftRing.Keyframe#offset}，负数表示从最新的关键帧开始
+     * @return 本地地址，服务未启动时为 null
+     */
+    public synchronized String getPlaybackUrl(long offset) {
+        if (serverSocket == null) {
+            return null;
+        }
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/timeshift/" + generation + "?from=" + offset;
+    }
+
+    /**
+     * 关闭当前的环形缓冲；关闭后旧的录制线程即使还阻塞在 read/receive 中，收到的数据也不会写入文件
+     */
+    private void closeRing() {
+        TimeshiftRing old = ring;
+        ring = null;
+        if (old != null) {
+            old.wakeUp();
+            old.close();
+        }
+    }
+
+    private void recordLoop(String url, TimeshiftRing ring, int current) {
+        long startTime = System.nanoTime();
+        while (generation == current) {
+            try {
+                if (url.startsWith("udp://") || url.startsWith("rtp://")) {
+                    recordDatagrams(url, ring, current, startTime);
+                } else {
+                    recordStream(url, ring, current, startTime);
+                }
+            } catch (IOException | URISyntaxException ignored) {
+                // 直播源中断，稍后重连
+            }
+            try {
+                Thread.sleep(RETRY_DELAY);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void recordStream(String url, TimeshiftRing ring, int current, long startTime) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(TIMEOUT);
+        connection.setReadTimeout(TIMEOUT);
+        try {
+            InputStream in = connection.getInputStream();
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while (generation == current && (read = in.read(buffer)) >= 0) {
+                    // read 可能在切换地址期间阻塞，写入前再确认一次
+                    if (generation != current) {
+                        break;
+                    }
+                    ring.write(buffer, 0, read, elapsed(startTime));
+                }
+            } finally {
+                in.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private void recordDatagrams(String url, TimeshiftRing ring, int current, long startTime) throws IOException, URISyntaxException {
+        URI uri = new URI(url.replace("://@", "://"));
+        String host = uri.getHost();
+        MulticastSocket socket = new MulticastSocket(uri.getPort());
+        try {
+            socket.setSoTimeout(TIMEOUT);
+            InetAddress group = host != null ? InetAddress.getByName(host) : null;
+            if (group != null && group.isMulticastAddress()) {
+                socket.joinGroup(group);
+            }
+            byte[] buffer = new byte[BUFFER_SIZE];
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            while (generation == current) {
+                packet.setLength(buffer.length);
+                socket.receive(packet);
+                int offset = payloadOffset(buffer, packet.getLength());
+                if (generation == current && offset < packet.getLength()) {
+                    ring.write(buffer, offset, packet.getLength() - offset, elapsed(startTime));
+                }
+            }
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * 跳过 RTP 头，纯 UDP 承载时 TS 包直接从 0 开始
+     */
+    private static int payloadOffset(byte[] data, int length) {
+        if (length < RTP_HEADER_SIZE || data[0] == 0x47 || (data[0] & 0xc0) != RTP_VERSION) {
+            return 0;
+        }
+        int offset = RTP_HEADER_SIZE + (data[0] & 0x0f) * 4;
+        if ((data[0] & 0x10) != 0 && offset + 4 <= length) {
+            // 扩展头
+            offset += 4 + (((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff)) * 4;
+        }
+        return Math.min(offset, length);
+    }
+
+    private static long elapsed(long startTime) {
+        return (System.nanoTime() - startTime) / 1000000;
+    }
+
+    private void accept(ServerSocket server) {
+        while (!server.isClosed()) {
+            final Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                return;
+            }
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        serve(socket);
+                    } catch (IOException ignored) {
+                        // 播放器断开
+                    } finally {
+                        try {
+                            socket.close();
+                        } catch (IOException ignored) {
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private void serve(Socket socket) throws IOException {
+        socket.setSoTimeout(TIMEOUT);
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        String requestLine = readLine(in);
+        while (true) {
+            String line = readLine(in);
+            if (line == null || line.isEmpty()) {
+                break;
+            }
+        }
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+        Request request = Request.parse(requestLine);
+        TimeshiftRing ring = this.ring;
+        if (request == null || request.generation != generation || ring == null) {
+            out.write("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".getBytes("US-ASCII"));
+            out.flush();
+            return;
+        }
+        out.write(("HTTP/1.1 200 OK\r\nContent-Type: video/mp2t\r\nConnection: close\r\n\r\n").getBytes("US-ASCII"));
+        if (request.head) {
+            out.flush();
+            return;
+        }
+        stream(ring, request.from, request.generation, out);
+    }
+
+    /**
+     * 从环形缓冲向播放器持续输出，直到播放器断开或开始录制新地址.
+     * 播放器暂停时不再读取，TCP 反压使本循环停在 write 上；恢复后从原位置继续，被覆盖时跳到窗口内最早的关键帧
+     */
+    private void stream(TimeshiftRing ring, long from, int current, OutputStream out) throws IOException {
+        long position = from;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try {
+            while (position < 0) {
+                TimeshiftRing.Keyframe live = ring.findKeyframe(-1);
+                if (live != null) {
+                    position = live.offset;
+                } else if (generation != current) {
+                    return;
+                } else {
+                    ring.awaitData(ring.getWritePosition(), WAIT_INTERVAL);
+                }
+            }
+            while (generation == current) {
+                int read = ring.read(position, buffer, buffer.length);
+                if (read < 0) {
+                    TimeshiftRing.Keyframe oldest = ring.findKeyframe(0);
+                    position = oldest != null ? oldest.offset : ring.getWritePosition();
+                } else if (read == 0) {
+                    out.flush();
+                    ring.awaitData(position, WAIT_INTERVAL);
+                } else {
+                    out.write(buffer, 0, read);
+                    position += read;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c == '\n') {
+                int length = builder.length();
+                if (length > 0 && builder.charAt(length - 1) == '\r') {
+                    builder.setLength(length - 1);
+                }
+                return builder.toString();
+            }
+            builder.append((char) c);
+        }
+        return builder.length() > 0 ? builder.toString() : null;
+    }
+
+    /**
+     * 请求行：GET /timeshift/&lt;generation&gt;?from=&lt;offset&gt; HTTP/1.1
+     */
+    private static final class Request {
+        private final boolean head;
+        private final int generation;
+        private final long from;
+
+        private Request(boolean head, int generation, long from) {
+            this.head = head;
+            this.generation = generation;
+            this.from = from;
+        }
+
+        private static Request parse(String requestLine) {
+            if (requestLine == null) {
+                return null;
+            }
+            String[] parts = requestLine.split(" ");
+            if (parts.length < 2 || !parts[1].startsWith("/timeshift/")) {
+                return null;
+            }
+            String path = parts[1].substring("/timeshift/".length());
+            int query = path.indexOf("?from=");
+            try {
+                if (query < 0) {
+                    return new Request("HEAD".equals(parts[0]), Integer.parseInt(path), -1);
+                }
+                return new Request("HEAD".equals(parts[0]), Integer.parseInt(path.substring(0, query)),
+                        Long.parseLong(path.substring(query + "?from=".length())));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
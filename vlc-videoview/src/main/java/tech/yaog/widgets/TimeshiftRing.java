@@ -0,0 +1,374 @@
+package tech.yaog.widgets;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 时移用的环形缓冲：固定大小、内存映射的文件，外加 MPEG-TS 关键帧索引.
+ * 写入位置和读取位置都用从录制开始算起的绝对字节偏移表示，偏移 p 的数据存放在文件的 p % capacity 处；
+ * 只保留最后 capacity 字节，更早的数据被覆盖.
+ * 关键帧取视频 PID（由 PAT/PMT 得到，PMT 中没有可识别的视频流时取 PCR PID）上 TS 包适配域中的 random_access_indicator，
+ * 音频等其他 PID 的随机访问点不计入；该 PID 上从未出现该标志时按固定间隔记录包边界.
+ * 单线程写入，多线程读取；只依赖 JDK.
+ */
+final class TimeshiftRing {
+
+    static final int TS_PACKET_SIZE = 188;
+    private static final byte TS_SYNC = 0x47;
+    private static final int PAT_PID = 0;
+    private static final int NO_PID = -1;
+    /**
+     * 索引最多保留的条目数
+     */
+    private static final int MAX_KEYFRAMES = 8192;
+    /**
+     * 两个索引条目的最小间隔(ms)
+     */
+    private static final long MIN_KEYFRAME_INTERVAL = 200;
+    /**
+     * 流中没有随机访问标志时，按此间隔记录包边界(ms)
+     */
+    private static final long FALLBACK_INTERVAL = 1000;
+
+    private final long capacity;
+    private final RandomAccessFile file;
+    private final MappedByteBuffer mapped;
+    /**
+     * 保护映射内存的写入与 {@link #close()}：关闭后旧的录制线程不能再写入同一个文件
+     */
+    private final Object writeLock = new Object();
+    private boolean closed;
+
+    /**
+     * 已写入的总字节数
+     */
+    private volatile long writePosition;
+    /**
+     * 正在写入的块的结束位置，读取方据此判断读到的数据是否已被覆盖
+     */
+    private volatile long reservedPosition;
+    private volatile long liveTime;
+
+    private final long[] keyframeTimes = new long[MAX_KEYFRAMES];
+    private final long[] keyframeOffsets = new long[MAX_KEYFRAMES];
+    private int keyframeHead;
+    private int keyframeCount;
+
+    /**
+     * 只在写入线程访问
+     */
+    private final byte[] packet = new byte[TS_PACKET_SIZE];
+    private int packetFill;
+    private long packetOffset;
+    private boolean randomAccessSeen;
+    private long lastKeyframeTime = -1;
+    private int pmtPid = NO_PID;
+    private int videoPid = NO_PID;
+
+    /**
+     * @param path     环形文件
+     * @param capacity 文件大小(byte)，向下取整到 TS 包大小的整数倍
+     * @throws IOException 无法创建或映射文件
+     */
+    TimeshiftRing(File path, long capacity) throws IOException {
+        this.capacity = Math.max(TS_PACKET_SIZE, capacity / TS_PACKET_SIZE * TS_PACKET_SIZE);
+        File parent = path.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        file = new RandomAccessFile(path, "rw");
+        file.setLength(this.capacity);
+        mapped = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, this.capacity);
+    }
+
+    /**
+     * 关闭文件，之后的写入被忽略；映射的内存在回收时释放
+     */
+    void close() {
+        synchronized (writeLock) {
+            closed = true;
+        }
+        try {
+            file.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    long getCapacity() {
+        return capacity;
+    }
+
+    long getWritePosition() {
+        return writePosition;
+    }
+
+    /**
+     * 最早的仍然有效的偏移
+     */
+    long getWindowStart() {
+        return Math.max(0, reservedPosition - capacity);
+    }
+
+    /**
+     * 最新数据的时间(ms，从录制开始算起)
+     */
+    long getLiveTime() {
+        return liveTime;
+    }
+
+    /**
+     * 写入收到的数据（只在写入线程调用）
+     *
+     * @param data   数据
+     * @param offset 起始下标
+     * @param length 长度，超过容量时分段写入（只有最后 capacity 字节保留下来）
+     * @param time   收到的时间(ms，从录制开始算起)
+     */
+    void write(byte[] data, int offset, int length, long time) {
+        while (length > capacity) {
+            writeChunk(data, offset, (int) capacity, time);
+            offset += (int) capacity;
+            length -= (int) capacity;
+        }
+        writeChunk(data, offset, length, time);
+    }
+
+    private void writeChunk(byte[] data, int offset, int length, long time) {
+        long start = writePosition;
+        synchronized (writeLock) {
+            if (closed) {
+                return;
+            }
+            reservedPosition = start + length;
+            ByteBuffer target = mapped.duplicate();
+            int position = (int) (start % capacity);
+            int first = (int) Math.min(length, capacity - position);
+            target.position(position);
+            target.put(data, offset, first);
+            if (first < length) {
+                target.position(0);
+                target.put(data, offset + first, length - first);
+            }
+        }
+        scan(data, offset, length, start, time);
+        synchronized (this) {
+            writePosition = start + length;
+            liveTime = time;
+            notifyAll();
+        }
+    }
+
+    /**
+     * 读取数据
+     *
+     * @param position 绝对偏移
+     * @param buffer   目标
+     * @param length   最多读取的长度
+     * @return 读到的长度；position 已被覆盖时返回 -1，尚无新数据时返回 0
+     */
+    int read(long position, byte[] buffer, int length) {
+        long available = writePosition - position;
+        if (position < getWindowStart()) {
+            return -1;
+        }
+        if (available <= 0) {
+            return 0;
+        }
+        int count = (int) Math.min(length, available);
+        ByteBuffer source = mapped.duplicate();
+        int index = (int) (position % capacity);
+        int first = (int) Math.min(count, capacity - index);
+        source.position(index);
+        source.get(buffer, 0, first);
+        if (first < count) {
+            source.position(0);
+            source.get(buffer, first, count - first);
+        }
+        // 复制期间写入方可能已覆盖这段数据
+        if (position < getWindowStart()) {
+            return -1;
+        }
+        return count;
+    }
+
+    /**
+     * 等待 position 之后有新数据
+     *
+     * @param position 绝对偏移
+     * @param timeout  最长等待(ms)
+     */
+    synchronized void awaitData(long position, long timeout) throws InterruptedException {
+        if (writePosition <= position) {
+            wait(timeout);
+        }
+    }
+
+    /**
+     * 唤醒所有等待数据的读取方
+     */
+    synchronized void wakeUp() {
+        notifyAll();
+    }
+
+    /**
+     * 查找不晚于指定时间的最后一个关键帧；早于窗口时返回窗口内最早的关键帧
+     *
+     * @param time 时间(ms，从录制开始算起)，负数表示最新的关键帧
+     * @return 关键帧，窗口内还没有关键帧时返回 null
+     */
+    synchronized Keyframe findKeyframe(long time) {
+        long windowStart = getWindowStart();
+        Keyframe found = null;
+        for (int i = 0; i < keyframeCount; i++) {
+            int index = (keyframeHead + i) % MAX_KEYFRAMES;
+            if (keyframeOffsets[index] < windowStart) {
+                continue;
+            }
+            if (found != null && time >= 0 && keyframeTimes[index] > time) {
+                break;
+            }
+            found = new Keyframe(keyframeTimes[index], keyframeOffsets[index]);
+        }
+        return found;
+    }
+
+    /**
+     * 按 TS 包扫描写入的数据，记录关键帧位置
+     */
+    private void scan(byte[] data, int offset, int length, long start, long time) {
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            if (packetFill == 0) {
+                // 寻找同步字节
+                if (data[i] != TS_SYNC) {
+                    i++;
+                    continue;
+                }
+                packetOffset = start + (i - offset);
+            }
+            int count = Math.min(TS_PACKET_SIZE - packetFill, end - i);
+            System.arraycopy(data, i, packet, packetFill, count);
+            packetFill += count;
+            i += count;
+            if (packetFill == TS_PACKET_SIZE) {
+                packetFill = 0;
+                onPacket(time);
+            }
+        }
+    }
+
+    private void onPacket(long time) {
+        int pid = ((packet[1] & 0x1f) << 8) | (packet[2] & 0xff);
+        int adaptation = (packet[3] >> 4) & 0x3;
+        if (pid == PAT_PID || pid == pmtPid) {
+            parseSection(pid, adaptation);
+        }
+        boolean randomAccess = pid == videoPid && (adaptation == 2 || adaptation == 3)
+                && (packet[4] & 0xff) > 0 && (packet[5] & 0x40) != 0;
+        if (randomAccess) {
+            randomAccessSeen = true;
+        }
+        boolean due = lastKeyframeTime < 0 || time - lastKeyframeTime >= MIN_KEYFRAME_INTERVAL;
+        if (randomAccess && due || !randomAccessSeen && (lastKeyframeTime < 0 || time - lastKeyframeTime >= FALLBACK_INTERVAL)) {
+            lastKeyframeTime = time;
+            addKeyframe(time, packetOffset);
+        }
+    }
+
+    /**
+     * 解析 PAT（取第一个节目的 PMT PID）和 PMT（取视频 PID）；只处理在一个包内开始并结束的段，PAT/PMT 通常如此
+     */
+    private void parseSection(int pid, int adaptation) {
+        if ((packet[1] & 0x40) == 0 || adaptation == 2) {
+            return;
+        }
+        int payload = 4;
+        if (adaptation == 3) {
+            payload += 1 + (packet[4] & 0xff);
+        }
+        if (payload >= TS_PACKET_SIZE) {
+            return;
+        }
+        int section = payload + 1 + (packet[payload] & 0xff);
+        if (section + 8 > TS_PACKET_SIZE) {
+            return;
+        }
+        int tableId = packet[section] & 0xff;
+        // 去掉结尾的 CRC
+        int end = Math.min(TS_PACKET_SIZE, section + 3 + (((packet[section + 1] & 0x0f) << 8) | (packet[section + 2] & 0xff))) - 4;
+        if (pid == PAT_PID && tableId == 0x00) {
+            for (int i = section + 8; i + 4 <= end; i += 4) {
+                int program = ((packet[i] & 0xff) << 8) | (packet[i + 1] & 0xff);
+                if (program != 0) {
+                    pmtPid = ((packet[i + 2] & 0x1f) << 8) | (packet[i + 3] & 0xff);
+                    return;
+                }
+            }
+        } else if (pid == pmtPid && tableId == 0x02 && section + 12 <= end) {
+            int pcrPid = ((packet[section + 8] & 0x1f) << 8) | (packet[section + 9] & 0xff);
+            int i = section + 12 + (((packet[section + 10] & 0x0f) << 8) | (packet[section + 11] & 0xff));
+            int video = NO_PID;
+            while (i + 5 <= end) {
+                int streamType = packet[i] & 0xff;
+                int elementaryPid = ((packet[i + 1] & 0x1f) << 8) | (packet[i + 2] & 0xff);
+                if (isVideo(streamType)) {
+                    video = elementaryPid;
+                    break;
+                }
+                i += 5 + (((packet[i + 3] & 0x0f) << 8) | (packet[i + 4] & 0xff));
+            }
+            videoPid = video != NO_PID ? video : (pcrPid != 0x1fff ? pcrPid : NO_PID);
+        }
+    }
+
+    private static boolean isVideo(int streamType) {
+        switch (streamType) {
+            case 0x01: // MPEG-1
+            case 0x02: // MPEG-2
+            case 0x10: // MPEG-4 Part 2
+            case 0x1b: // H.264
+            case 0x20: // H.264 MVC
+            case 0x24: // H.265
+            case 0x42: // AVS
+            case 0xea: // VC-1
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private synchronized void addKeyframe(long time, long offset) {
+        int index = (keyframeHead + keyframeCount) % MAX_KEYFRAMES;
+        if (keyframeCount == MAX_KEYFRAMES) {
+            keyframeHead = (keyframeHead + 1) % MAX_KEYFRAMES;
+        } else {
+            keyframeCount++;
+        }
+        keyframeTimes[index] = time;
+        keyframeOffsets[index] = offset;
+    }
+
+    /**
+     * 关键帧位置
+     */
+    static final class Keyframe {
+        /**
+         * 时间(ms，从录制开始算起)
+         */
+        final long time;
+        /**
+         * 绝对偏移
+         */
+        final long offset;
+
+        Keyframe(long time, long offset) {
+            this.time = time;
+            this.offset = offset;
+        }
+    }
+}
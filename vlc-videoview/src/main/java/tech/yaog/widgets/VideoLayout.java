@@ -0,0 +1,108 @@
+package tech.yaog.widgets;
+
+/**
+ * 按视频尺寸和测量模式计算控件尺寸（保持宽高比）.
+ * 结果写入 {@link #width} / {@link #height}，可重复使用同一实例以免在布局回调中分配对象.
+ * 不依赖 Android，测量模式的取值与 {@code View.MeasureSpec} 相同.
+ */
+final class VideoLayout {
+
+    static final int UNSPECIFIED = 0;
+    static final int EXACTLY = 1 << 30;
+    static final int AT_MOST = 2 << 30;
+
+    int width;
+    int height;
+
+    private int inputVideoWidth = -1;
+    private int inputVideoHeight = -1;
+    private int inputSarNum;
+    private int inputSarDen;
+    private int inputWidthSpec;
+    private int inputHeightSpec;
+
+    /**
+     * 记录一组布局输入
+     *
+     * @param videoWidth  视频宽度
+     * @param videoHeight 视频高度
+     * @param sarNum      像素宽高比分子
+     * @param sarDen      像素宽高比分母
+     * @param widthSpec   宽度测量规格
+     * @param heightSpec  高度测量规格
+     * @return 与上一次记录的输入不同时返回 true，需要重新计算布局
+     */
+    boolean update(int videoWidth, int videoHeight, int sarNum, int sarDen, int widthSpec, int heightSpec) {
+        if (videoWidth == inputVideoWidth && videoHeight == inputVideoHeight
+                && sarNum == inputSarNum && sarDen == inputSarDen
+                && widthSpec == inputWidthSpec && heightSpec == inputHeightSpec) {
+            return false;
+        }
+        inputVideoWidth = videoWidth;
+        inputVideoHeight = videoHeight;
+        inputSarNum = sarNum;
+        inputSarDen = sarDen;
+        inputWidthSpec = widthSpec;
+        inputHeightSpec = heightSpec;
+        return true;
+    }
+
+    /**
+     * 清除记录的输入，下一次 {@link #update} 必定返回 true
+     */
+    void invalidate() {
+        inputVideoWidth = -1;
+        inputVideoHeight = -1;
+    }
+
+    /**
+     * 计算控件尺寸
+     *
+     * @param videoWidth     视频宽度
+     * @param videoHeight    视频高度
+     * @param measuredWidth  当前测量宽度
+     * @param measuredHeight 当前测量高度
+     * @param widthMode      宽度测量模式
+     * @param heightMode     高度测量模式
+     */
+    void measure(int videoWidth, int videoHeight, int measuredWidth, int measuredHeight, int widthMode, int heightMode) {
+        int newWidth = measuredWidth;
+        int newHeight = measuredHeight;
+
+        double widthRate = (double) videoWidth / (double) measuredWidth;
+        double heightRate = (double) videoHeight / (double) measuredHeight;
+
+        if (widthRate > heightRate) {
+            if (widthMode == AT_MOST) {
+                newWidth = Math.min(videoWidth, measuredWidth);
+            } else if (widthMode == UNSPECIFIED) {
+                newWidth = videoWidth;
+            }
+            if (heightMode == AT_MOST || heightMode == UNSPECIFIED) {
+                newHeight = (int) Math.ceil((double) newWidth / (double) videoWidth * (double) videoHeight);
+            }
+        } else {
+            if (heightMode == AT_MOST) {
+                newHeight = Math.min(videoHeight, measuredHeight);
+            } else if (heightMode == UNSPECIFIED) {
+                newHeight = videoHeight;
+            }
+            if (widthMode == AT_MOST || widthMode == UNSPECIFIED) {
+                newWidth = (int) Math.ceil((double) newHeight / (double) videoHeight * (double) videoWidth);
+            }
+        }
+
+        width = newWidth;
+        height = newHeight;
+    }
+
+    /**
+     * 该测量模式下控件尺寸是否随视频变化
+     *
+     * @param mode 测量模式
+     * @return 是否随视频变化
+     */
+    static boolean isWrapping(int mode) {
+        return mode == UNSPECIFIED || mode == AT_MOST;
+    }
+}
@@ -0,0 +1,274 @@
+package tech.yaog.widgets;
+
+import android.graphics.Rect;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import org.videolan.libvlc.Media;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 多路同屏（宫格）播放协调器.
+ * 管理一组 {@link VlcVideoView}：
+ * <ul>
+ * <li>全局限制硬件解码器的数量，超出后新打开的视频改用软件解码，并跳过环路滤波以降低解码开销</li>
+ * <li>移出屏幕、被隐藏或可见面积过小的视频自动暂停并让出硬件解码器，重新可见时自动恢复；
+ * 这期间硬件解码器被其他视频占满时，改用软件解码从暂停处重新打开</li>
+ * </ul>
+ * 参数相同的控件本来就通过 {@link LibVlcPool} 共享同一个 LibVLC.
+ * 只能在主线程调用.
+ */
+public class VideoWallCoordinator {
+
+    /**
+     * 默认硬件解码器数量
+     */
+    public static final int DEFAULT_HARDWARE_SLOTS = 4;
+    /**
+     * 默认最小可见面积(px²)，小于此面积视为不可见
+     */
+    public static final int DEFAULT_MIN_VISIBLE_AREA = 96 * 96;
+
+    private final Map<VlcVideoView, Tile> tiles = new IdentityHashMap<>();
+    private final Set<VlcVideoView> hardwareUsers = Collections.newSetFromMap(new IdentityHashMap<VlcVideoView, Boolean>());
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Rect visibleRect = new Rect();
+    private int hardwareSlots;
+    private int minVisibleArea = DEFAULT_MIN_VISIBLE_AREA;
+    private boolean checkScheduled;
+
+    private final Runnable checkVisibility = new Runnable() {
+        @Override
+        public void run() {
+            checkScheduled = false;
+            updateVisibility();
+        }
+    };
+    private final ViewTreeObserver.OnScrollChangedListener scrollListener = new ViewTreeObserver.OnScrollChangedListener() {
+        @Override
+        public void onScrollChanged() {
+            scheduleVisibilityCheck();
+        }
+    };
+    private final ViewTreeObserver.OnGlobalLayoutListener layoutListener = new ViewTreeObserver.OnGlobalLayoutListener() {
+        @Override
+        public void onGlobalLayout() {
+            scheduleVisibilityCheck();
+        }
+    };
+
+    public VideoWallCoordinator() {
+        this(DEFAULT_HARDWARE_SLOTS);
+    }
+
+    /**
+     * @param hardwareSlots 硬件解码器数量
+     */
+    public VideoWallCoordinator(int hardwareSlots) {
+        this.hardwareSlots = Math.max(0, hardwareSlots);
+    }
+
+    /**
+     * 加入协调，对之后打开的视频生效
+     *
+     * @param view 播放控件
+     */
+    public void add(VlcVideoView view) {
+        if (tiles.containsKey(view)) {
+            return;
+        }
+        Tile tile = new Tile(view);
+        tiles.put(view, tile);
+        view.setCoordinator(this);
+        view.addOnAttachStateChangeListener(tile);
+        if (view.getWindowToken() != null) {
+            tile.onViewAttachedToWindow(view);
+        }
+    }
+
+    /**
+     * 退出协调，归还占用的硬件解码器；因不可见而自动暂停的视频会恢复播放
+     *
+     * @param view 播放控件
+     */
+    public void remove(VlcVideoView view) {
+        Tile tile = tiles.remove(view);
+        if (tile == null) {
+            return;
+        }
+        view.removeOnAttachStateChangeListener(tile);
+        tile.onViewDetachedFromWindow(view);
+        view.setCoordinator(null);
+        hardwareUsers.remove(view);
+        if (tile.autoPaused) {
+            tile.autoPaused = false;
+            tile.hardwareReleased = false;
+            view.resume();
+        }
+    }
+
+    /**
+     * 移除所有控件
+     */
+    public void clear() {
+        for (VlcVideoView view : tiles.keySet().toArray(new VlcVideoView[tiles.size()])) {
+            remove(view);
+        }
+        handler.removeCallbacks(checkVisibility);
+        checkScheduled = false;
+    }
+
+    /**
+     * 设置硬件解码器数量，对之后打开的视频生效
+     *
+     * @param hardwareSlots 硬件解码器数量，0 表示全部软件解码
+     */
+    public void setHardwareSlots(int hardwareSlots) {
+        this.hardwareSlots = Math.max(0, hardwareSlots);
+    }
+
+    /**
+     * 设置最小可见面积
+     *
+     * @param minVisibleArea 最小可见面积(px²)，0 表示只要有可见部分就播放
+     */
+    public void setMinVisibleArea(int minVisibleArea) {
+        this.minVisibleArea = Math.max(0, minVisibleArea);
+        scheduleVisibilityCheck();
+    }
+
+    /**
+     * 取得正在使用硬件解码的控件数量
+     *
+     * @return 正在使用硬件解码的控件数量
+     */
+    public int getHardwareInUse() {
+        return hardwareUsers.size();
+    }
+
+    /**
+     * 按解码器余量配置新建的媒体，有空闲硬件解码器时占用一个
+     *
+     * @param view  播放控件
+     * @param media 媒体
+     */
+    void configureMedia(VlcVideoView view, Media media) {
+        boolean hardware = hardwareUsers.contains(view);
+        if (!hardware && hardwareUsers.size() < hardwareSlots) {
+            hardwareUsers.add(view);
+            hardware = true;
+        }
+        media.setHWDecoderEnabled(hardware, false);
+        if (!hardware) {
+            media.addOption(":avcodec-fast");
+            media.addOption(":avcodec-skiploopfilter=4");
+        }
+    }
+
+    /**
+     * 控件当前是否占用硬件解码器
+     *
+     * @param view 播放控件
+     * @return 是否使用硬件解码
+     */
+    boolean usesHardware(VlcVideoView view) {
+        return hardwareUsers.contains(view);
+    }
+
+    /**
+     * 控件不再解码（停止、出错或 detach），归还硬件解码器
+     *
+     * @param view 播放控件
+     */
+    void releaseDecoder(VlcVideoView view) {
+        hardwareUsers.remove(view);
+    }
+
+    private void scheduleVisibilityCheck() {
+        if (!checkScheduled) {
+            checkScheduled = true;
+            handler.post(checkVisibility);
+        }
+    }
+
+    private void updateVisibility() {
+        for (Tile tile : tiles.values()) {
+            VlcVideoView view = tile.view;
+            boolean visible = view.isShown() && view.getGlobalVisibleRect(visibleRect)
+                    && visibleRect.width() * visibleRect.height() >= minVisibleArea;
+            if (!visible && view.isActive()) {
+                tile.autoPaused = true;
+                view.pause();
+                if (hardwareUsers.contains(view)) {
+                    // 暂停的播放器仍持有解码器，停止后才归还名额
+                    view.stopDecoder();
+                    tile.hardwareReleased = true;
+                }
+            } else if (visible && tile.autoPaused) {
+                tile.autoPaused = false;
+                if (tile.hardwareReleased) {
+                    // 从暂停处重新打开，按当时的余量选择硬件或软件解码
+                    view.reopenDecoder();
+                } else {
+                    view.resume();
+                }
+                tile.hardwareReleased = false;
+            }
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private void removeLayoutListener(ViewTreeObserver observer) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            observer.removeOnGlobalLayoutListener(layoutListener);
+        } else {
+            observer.removeGlobalOnLayoutListener(layoutListener);
+        }
+    }
+
+    private class Tile implements View.OnAttachStateChangeListener {
+        private final VlcVideoView view;
+        private ViewTreeObserver observer;
+        private boolean autoPaused;
+        /**
+         * 自动暂停时停止了播放器并归还了硬件解码器
+         */
+        private boolean hardwareReleased;
+
+        private Tile(VlcVideoView view) {
+            this.view = view;
+        }
+
+        @Override
+        public void onViewAttachedToWindow(View v) {
+            if (observer != null) {
+                return;
+            }
+            observer = v.getViewTreeObserver();
+            observer.addOnScrollChangedListener(scrollListener);
+            observer.addOnGlobalLayoutListener(layoutListener);
+            scheduleVisibilityCheck();
+        }
+
+        @Override
+        public void onViewDetachedFromWindow(View v) {
+            if (observer == null) {
+                return;
+            }
+            if (observer.isAlive()) {
+                observer.removeOnScrollChangedListener(scrollListener);
+                removeLayoutListener(observer);
+            }
+            observer = null;
+            autoPaused = false;
+            hardwareReleased = false;
+        }
+    }
+}
@@ -2,11 +2,17 @@ package tech.yaog.widgets;
 
 import android.annotation.TargetApi;
 import android.content.Context;
+import android.graphics.SurfaceTexture;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.view.SurfaceHolder;
 import android.view.SurfaceView;
+import android.view.TextureView;
 import android.view.ViewGroup;
 import android.widget.FrameLayout;
 
@@ -16,188 +22,320 @@ import org.videolan.libvlc.Media;
 import org.videolan.libvlc.MediaPlayer;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.io.IOException;
 
 import tech.yaog.utils.statemachine.Event;
-import tech.yaog.utils.statemachine.State;
 import tech.yaog.utils.statemachine.StateMachine;
 
 /**
  * VLC 视频播放器.
  * 只包含基础功能，用法类似 {@linkplain android.widget.VideoView VideoView} .
+ * 播放控制方法可在任意线程调用，统一在主线程上按调用顺序执行.
  * Created by mutoukenji on 2017/8/14.
  */
 public class VlcVideoView extends FrameLayout implements MediaPlayer.EventListener, IVLCVout.Callback {
 
     private static final String TAG = VlcVideoView.class.getName();
+    /**
+     * 播放队列的下一项在当前项结束前多久开始预加载(ms)
+     */
+    private static final long QUEUE_PRELOAD_LEAD = 10000;
+    /**
+     * 连续跳转的默认最小间隔(ms)
+     */
+    private static final long DEFAULT_SEEK_INTERVAL = 200;
+    /**
+     * 直播模式下网络缓存的下限(ms)
+     */
+    private static final int MIN_LIVE_CACHING = 100;
+    /**
+     * 直播延迟的回调间隔(ms)
+     */
+    private static final long LATENCY_REPORT_INTERVAL = 1000;
+    private static volatile boolean verboseLogging = false;
+    /**
+     * 未单独设置策略的控件共用的缓存策略
+     */
+    private static final CachingStrategy DEFAULT_CACHING_STRATEGY = new AdaptiveCachingStrategy();
     private LibVLC vlc;
-    private Uri subtitle;
-    private Media media;
-    private MediaPlayer player;
-    private float buffering;
-    private int widthMode;
-    private int heightMode;
+    private String[] vlcOptions = new String[0];
+    private final SubtitleManager subtitles = new SubtitleManager(getContext());
+    private final DecoderCapabilities decoders = new DecoderCapabilities(getContext());
+    /**
+     * 当前媒体是否已对照过解码能力记录
+     */
+    private boolean decoderChecked;
+    private volatile Uri source;
+    private volatile Media media;
+    private MediaPreloader preloader;
+    private Uri pendingPreload;
+    private final Playlist playlist = new Playlist();
+    private boolean queuePreloaded;
+    private long length;
+    private volatile MediaPlayer player;
+    /**
+     * 每次 attach/detach 递增，用于丢弃 detach 之后才完成的异步创建
+     */
+    private int attachGeneration;
+    private volatile float buffering;
+    private int widthSpec;
+    private int heightSpec;
+    /**
+     * 是否已经测量过；测量前 widthSpec、heightSpec 无效，不能据此改写 LayoutParams
+     */
+    private boolean measured;
     private PlaybackEvent playbackEvent;
+    private RenderBackend renderBackend = RenderBackend.SurfaceView;
+    /**
+     * SurfaceView 后端的视频和字幕层，TextureView 后端时为 null
+     */
     private SurfaceView videoSurface;
     private SurfaceView subtitleSurface;
-    private StateMachine<PlayerState, PlayerEvent> stateMachine = new StateMachine<>();
+    /**
+     * TextureView 后端的视频层，SurfaceView 后端时为 null
+     */
+    private TextureView videoTexture;
+    private FrameTap frameTap;
+    /**
+     * 当前状态，仅供高频事件（位置、缓冲）的快速分发路径判断是否需要回调
+     */
+    private volatile PlayerState state = PlayerState.WaitingAttach;
+    private volatile CachingStrategy cachingStrategy = DEFAULT_CACHING_STRATEGY;
+    private final PlaybackMetrics metrics = new PlaybackMetrics(new PlaybackMetrics.Observer() {
+        @Override
+        public void onThroughput(long readRate, long bitrate) {
+            CachingStrategy strategy = cachingStrategy;
+            Uri uri = source;
+            if (strategy != null && uri != null) {
+                strategy.onThroughput(uri, readRate, bitrate);
+            }
+        }
 
-    {
-        State<PlayerState, PlayerEvent> waitingAttach = new State<PlayerState, PlayerEvent>(PlayerState.WaitingAttach)
-                .onEvent(PlayerEvent.Attach, PlayerState.Attached)
-                .onEvent(PlayerEvent.AskForPlay, PlayerState.WaitingAttachPlay);
+        @Override
+        public void onRebuffer(long duration) {
+            CachingStrategy strategy = cachingStrategy;
+            Uri uri = source;
+            if (strategy != null && uri != null) {
+                strategy.onRebuffer(uri, duration);
+            }
+        }
+    });
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    /**
+     * 改变状态的调用（公开方法和播放器事件）都在主线程上按顺序执行
+     */
+    private final CommandQueue commands = new CommandQueue(Looper.getMainLooper());
+    private final ProgressDispatcher progressDispatcher = new ProgressDispatcher(metrics, new ProgressDispatcher.Scheduler() {
+        @Override
+        public long now() {
+            return SystemClock.uptimeMillis();
+        }
 
-        State<PlayerState, PlayerEvent> waitingAttachPlay = new State<PlayerState, PlayerEvent>(PlayerState.WaitingAttachPlay)
-                .onEvent(PlayerEvent.Attach, PlayerState.Buffering);
+        @Override
+        public long realtime() {
+            return SystemClock.elapsedRealtime();
+        }
 
-        State<PlayerState, PlayerEvent> attached = new State<PlayerState, PlayerEvent>(PlayerState.Attached)
-                .onEvent(PlayerEvent.AskForPlay, PlayerState.Buffering);
+        @Override
+        public void schedule(Runnable task, long delay) {
+            mainHandler.postDelayed(task, delay);
+        }
 
-        State<PlayerState, PlayerEvent> buffering = new State<PlayerState, PlayerEvent>(PlayerState.Buffering)
-                .onEntry(new State.Handler() {
-                    @Override
-                    public void handle(Object... data) {
-                        player.setMedia(media);
-                        if (subtitle != null) {
-                            player.addSlave(Media.Slave.Type.Subtitle, subtitle, true);
-                        } else {
-                            player.setSpuTrack(-1);
-                        }
-                        player.play();
-                    }
-                })
-                .onEvent(PlayerEvent.Buffering, new State.Handler() {
-                    @Override
-                    public void handle(Object... data) {
-                        if (playbackEvent != null) {
-                            if (data.length > 0) {
-                                playbackEvent.onBuffering(((Float) data[0]).intValue());
-                            }
-                        }
-                    }
-                })
-                .onEvent(PlayerEvent.SetSubtitle, new State.Handler() {
-                    @Override
-                    public void handle(Object... data) {
-                        if (subtitle != null) {
-                            player.addSlave(Media.Slave.Type.Subtitle, subtitle, true);
-                        } else {
-                            player.setSpuTrack(-1);
-                        }
-                    }
-                })
-                .onEvent(PlayerEvent.Play, PlayerState.Playing, new State.Handler() {
-                    @Override
-                    public void handle(Object... data) {
-                        if (playbackEvent != null) {
-                            playbackEvent.onStart();
-                        }
-                    }
-                })
-                .onEvent(PlayerEvent.Pause, PlayerState.Paused)
-                .onEvent(PlayerEvent.Error, PlayerState.Attached, new State.Handler() {
-                    @Override
-                    public void handle(Object... data) {
-                        if (playbackEvent != null) {
-                            playbackEvent.onError();
-                        }
-                    }
-                });
+        @Override
+        public void cancel(Runnable task) {
+            mainHandler.removeCallbacks(task);
+        }
+    });
+    private final ProgressDispatcher.Listener progressListener = new ProgressDispatcher.Listener() {
+        @Override
+        public void onBuffering(int percent) {
+            // 延后投递时状态可能已经变化
+            PlaybackEvent playbackEvent = VlcVideoView.this.playbackEvent;
+            if (playbackEvent != null && state == PlayerState.Buffering) {
+                playbackEvent.onBuffering(percent);
+            }
+        }
 
-        State<PlayerState, PlayerEvent> playing = new State<PlayerState, PlayerEvent>(PlayerState.Playing)
-                .onEvent(PlayerEvent.End, PlayerState.Attached, new State.Handler() {
-                    @Override
-                    public void handle(Object... data) {
-                        if (playbackEvent != null) {
-                            playbackEvent.onEnded();
-                        }
-                    }
-                })
-                .onEvent(PlayerEvent.Stop, PlayerState.Stopping)
-                .onEvent(PlayerEvent.Position, new State.Handler() {
-                    @Override
-                    public void handle(Object... data) {
-                        if (playbackEvent != null) {
-                            if (data.length > 0) {
-                                playbackEvent.onPosition((Integer) data[0]);
-                            }
-                        }
-                    }
-                })
-                .onEvent(PlayerEvent.Pause, PlayerState.Paused)
-                .onEvent(PlayerEvent.SetSubtitle, new State.Handler() {
-                    @Override
-                    public void handle(Object... data) {
-                        if (subtitle != null) {
-                            player.addSlave(Media.Slave.Type.Subtitle, subtitle, true);
-                        } else {
-                            player.setSpuTrack(-1);
-                        }
-                    }
-                })
-                .onEvent(PlayerEvent.Error, PlayerState.Attached, new State.Handler() {
-                    @Override
-                    public void handle(Object... data) {
-                        if (playbackEvent != null) {
-                            playbackEvent.onError();
-                        }
-                    }
-                });
+        @Override
+        public void onPosition(int msec) {
+            PlaybackEvent playbackEvent = VlcVideoView.this.playbackEvent;
+            if (playbackEvent != null && state == PlayerState.Playing) {
+                playbackEvent.onPosition(msec);
+            }
+        }
+    };
+    private final ProgressThrottle seekThrottle = new ProgressThrottle(DEFAULT_SEEK_INTERVAL, 0);
+    private final Runnable seekFlush = new Runnable() {
+        @Override
+        public void run() {
+            long time = (long) seekThrottle.flush(SystemClock.uptimeMillis());
+            if (state == PlayerState.Playing || state == PlayerState.Paused) {
+                metrics.markSeek(SystemClock.elapsedRealtime());
+                player.setTime(time);
+            }
+        }
+    };
+    private SeekMode seekMode = SeekMode.Precise;
+    private VideoWallCoordinator coordinator;
+    private volatile MediaCacheProxy cacheProxy;
+    private volatile MediaMetadataCache metadataCache;
+    private volatile TimeshiftBuffer timeshift;
+    /**
+     * 时移播放的起点（环形缓冲中的偏移），-1 表示从最新位置开始
+     */
+    private long timeshiftOffset = -1;
+    /**
+     * 当前打开的时移起点对应的时间(ms，从开始录制算起)，播放时间加上它即为时移时间轴上的位置
+     */
+    private volatile long timeshiftBase;
+    /**
+     * 当前视频的缓存信息，尚未取得时为 null
+     */
+    private volatile MediaMetadataCache.Metadata sourceMetadata;
+    private long pendingSeek = -1;
+    /**
+     * 暂停中已停止播放器以释放解码器（协调器让出硬件解码器时），继续播放时从 {@link #pendingSeek} 重新打开
+     */
+    private boolean decoderStopped;
+    private LiveLatencyController live;
+    private float liveRate = 1f;
+    private long lastLatencyReport;
+    private boolean audioOnly;
+    /**
+     * 视频 Surface 是否可用，由 {@link #videoSurface} / {@link #videoTexture} 的回调维护
+     */
+    private boolean surfaceAvailable;
+    /**
+     * 视频输出已断开、视频轨道已关闭
+     */
+    private boolean videoSuspended;
+    /**
+     * 关闭前的视频轨道，恢复时重新选择
+     */
+    private int suspendedVideoTrack = -1;
+    private final Runnable advanceQueue = new Runnable() {
+        @Override
+        public void run() {
+            int next = playlist.nextIndex();
+            if (next >= 0 && state == PlayerState.Attached) {
+                skipTo(next);
+            }
+        }
+    };
+    private final Runnable alreadyStopped = new Runnable() {
+        @Override
+        public void run() {
+            if (state == PlayerState.Stopping) {
+                stateMachine.event(new Event<>(PlayerEvent.Stopped));
+            }
+        }
+    };
+    private final VideoLayout videoLayout = new VideoLayout();
+    private IVLCVout layoutVout;
+    private IVLCVout appliedVout;
+    private int layoutVideoWidth;
+    private int layoutVideoHeight;
+    private int layoutSarNum;
+    private int layoutSarDen;
+    private boolean layoutScheduled;
+    private final Runnable applyLayout = new Runnable() {
+        @Override
+        public void run() {
+            layoutScheduled = false;
+            applyVideoLayout();
+        }
+    };
+    private final StateMachine<PlayerState, PlayerEvent> stateMachine = PlayerStateGraph.create(new PlayerStateGraph.Actions() {
+        @Override
+        public void onStateEntered(PlayerState newState) {
+            long now = SystemClock.elapsedRealtime();
+            if (newState == PlayerState.Playing) {
+                metrics.onPlayingStarted(now);
+            } else if (state == PlayerState.Playing) {
+                metrics.onPlayingStopped(now);
+            }
+            if (coordinator != null && (newState == PlayerState.WaitingAttach
+                    || newState == PlayerState.WaitingAttachPlay || newState == PlayerState.Attached)) {
+                coordinator.releaseDecoder(VlcVideoView.this);
+            }
+            state = newState;
+        }
 
-        State<PlayerState, PlayerEvent> stopping = new State<PlayerState, PlayerEvent>(PlayerState.Stopping)
-                .onEntry(new State.Handler() {
-                    @Override
-                    public void handle(Object... data) {
-                        player.stop();
-                    }
-                })
-                .onEvent(PlayerEvent.Stopped, PlayerState.Attached, new State.Handler() {
-                    @Override
-                    public void handle(Object... data) {
-                        if (playbackEvent != null) {
-                            playbackEvent.onStop();
-                        }
-                    }
-                })
-                .onEvent(PlayerEvent.Error, PlayerState.Attached, new State.Handler() {
-                    @Override
-                    public void handle(Object... data) {
-                        if (playbackEvent != null) {
-                            playbackEvent.onError();
-                        }
-                    }
-                });
+        @Override
+        public void openMedia() {
+            VlcVideoView.this.openMedia();
+        }
 
-        State<PlayerState, PlayerEvent> paused = new State<PlayerState, PlayerEvent>(PlayerState.Paused)
-                .onEntry(new State.Handler() {
-                    @Override
-                    public void handle(Object... data) {
-                        player.pause();
-                    }
-                })
-                .onEvent(PlayerEvent.End, PlayerState.Attached)
-                .onEvent(PlayerEvent.Stop, PlayerState.Stopping)
-                .onEvent(PlayerEvent.SetSubtitle, new State.Handler() {
-                    @Override
-                    public void handle(Object... data) {
-                        if (subtitle != null) {
-                            player.addSlave(Media.Slave.Type.Subtitle, subtitle, true);
-                        } else {
-                            player.setSpuTrack(-1);
-                        }
-                    }
-                })
-                .onEvent(PlayerEvent.Resume, PlayerState.Playing, new State.Handler() {
-                    @Override
-                    public void handle(Object... data) {
-                        player.play();
-                    }
-                });
+        @Override
+        public void applySubtitle() {
+            subtitles.apply(player);
+        }
 
-        stateMachine.setStates(waitingAttach, waitingAttachPlay, attached, buffering, playing, stopping, paused);
-        stateMachine.start();
-    }
+        @Override
+        public void onStarted() {
+            length = player.getLength();
+            if (videoSuspended) {
+                // 新媒体默认选中了视频轨道
+                disableVideoTrack();
+            }
+            metrics.attach(media);
+            // 跳转目标只用于这一次打开，之后的重新打开（重连、切换解码器、停止后再播放）从最新位置开始
+            timeshiftOffset = -1;
+            if (pendingSeek >= 0) {
+                metrics.markSeek(SystemClock.elapsedRealtime());
+                player.setTime(pendingSeek);
+                pendingSeek = -1;
+            }
+            if (playbackEvent != null) {
+                playbackEvent.onStart();
+            }
+        }
+
+        @Override
+        public void onEnded() {
+            if (playbackEvent != null) {
+                playbackEvent.onEnded();
+            }
+            if (playlist.peekNext() != null) {
+                mainHandler.post(advanceQueue);
+            }
+        }
+
+        @Override
+        public void onStopped() {
+            if (playbackEvent != null) {
+                playbackEvent.onStop();
+            }
+        }
+
+        @Override
+        public void onError() {
+            if (playbackEvent != null) {
+                playbackEvent.onError();
+            }
+        }
+
+        @Override
+        public void stopPlayer() {
+            if (decoderStopped) {
+                // 播放器已停止，不会再有 Stopped 事件
+                decoderStopped = false;
+                mainHandler.post(alreadyStopped);
+                return;
+            }
+            player.stop();
+        }
+
+        @Override
+        public void pausePlayer() {
+            player.pause();
+        }
+
+        @Override
+        public void resumePlayer() {
+            player.play();
+        }
+    });
 
     public VlcVideoView(Context context) {
         super(context);
@@ -229,8 +367,54 @@ public class VlcVideoView extends FrameLayout implements MediaPlayer.EventListen
      *
      * @param playbackEvent 播放回调事件
      */
-    public void setPlaybackEvent(PlaybackEvent playbackEvent) {
+    public void setPlaybackEvent(final PlaybackEvent playbackEvent) {
+        if (!commands.canExecuteNow()) {
+            commands.enqueue(new Runnable() {
+                @Override
+                public void run() {
+                    setPlaybackEvent(playbackEvent);
+                }
+            });
+            return;
+        }
         this.playbackEvent = playbackEvent;
+        progressDispatcher.setListener(playbackEvent != null ? progressListener : null);
+    }
+
+    /**
+     * 设置位置/缓冲回调的节流参数.
+     * 间隔内的中间值会被合并，只在主线程投递最新的一个；默认不节流，每个事件都回调
+     *
+     * @param interval          两次回调的最小间隔(ms)，0 表示不限制
+     * @param minPositionDelta  位置回调的最小变化量(ms)
+     * @param minBufferingDelta 缓冲回调的最小变化量(百分点)
+     */
+    public void setProgressThrottle(final long interval, final int minPositionDelta, final float minBufferingDelta) {
+        if (!commands.canExecuteNow()) {
+            commands.enqueue(new Runnable() {
+                @Override
+                public void run() {
+                    setProgressThrottle(interval, minPositionDelta, minBufferingDelta);
+                }
+            });
+            return;
+        }
+        progressDispatcher.configure(interval, minPositionDelta, minBufferingDelta);
+    }
+
+    /**
+     * 开启/关闭详细日志（全局）
+     *
+     * @param enabled 是否输出详细日志
+     */
+    public static void setVerboseLogging(boolean enabled) {
+        verboseLogging = enabled;
+    }
+
+    private void resetProgressThrottles() {
+        progressDispatcher.reset();
+        mainHandler.removeCallbacks(seekFlush);
+        seekThrottle.reset();
     }
 
     private void generateSurfaceViews() {
@@ -238,197 +422,1264 @@ public class VlcVideoView extends FrameLayout implements MediaPlayer.EventListen
         subtitleSurface = new SurfaceView(getContext());
         addView(videoSurface, 0, new LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT));
         addView(subtitleSurface, 1, new LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT));
+        videoSurface.getHolder().addCallback(new SurfaceHolder.Callback() {
+            @Override
+            public void surfaceCreated(SurfaceHolder holder) {
+                surfaceAvailable = true;
+                if (!audioOnly) {
+                    resumeVideo();
+                }
+            }
+
+            @Override
+            public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+            }
+
+            @Override
+            public void surfaceDestroyed(SurfaceHolder holder) {
+                surfaceAvailable = false;
+            }
+        });
+    }
+
+    private void generateTextureView() {
+        videoTexture = new TextureView(getContext());
+        addView(videoTexture, 0, new LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT));
+        videoTexture.setSurfaceTextureListener(new TextureView.SurfaceTextureListener() {
+            @Override
+            public void onSurfaceTextureAvailable(SurfaceTexture surface, int width, int height) {
+                surfaceAvailable = true;
+                if (player == null) {
+                    return;
+                }
+                if (videoSuspended) {
+                    if (!audioOnly) {
+                        resumeVideo();
+                    }
+                } else if (!player.getVLCVout().areViewsAttached()) {
+                    attachViews(player.getVLCVout());
+                }
+            }
+
+            @Override
+            public void onSurfaceTextureSizeChanged(SurfaceTexture surface, int width, int height) {
+                if (player != null && player.getVLCVout().areViewsAttached()) {
+                    player.getVLCVout().setWindowSize(width, height);
+                }
+            }
+
+            @Override
+            public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
+                surfaceAvailable = false;
+                // 先断开视频输出，之后纹理由 TextureView 释放
+                suspendVideo();
+                return true;
+            }
+
+            @Override
+            public void onSurfaceTextureUpdated(SurfaceTexture surface) {
+                if (frameTap != null && videoTexture != null) {
+                    frameTap.capture(videoTexture);
+                }
+            }
+        });
+    }
+
+    /**
+     * 选择渲染方式，默认为 {@link RenderBackend#SurfaceView}.
+     * 播放中切换时视频输出会断开并连接到新的视图上
+     *
+     * @param renderBackend 渲染方式
+     */
+    public void setRenderBackend(final RenderBackend renderBackend) {
+        if (!commands.canExecuteNow()) {
+            commands.enqueue(new Runnable() {
+                @Override
+                public void run() {
+                    setRenderBackend(renderBackend);
+                }
+            });
+            return;
+        }
+        if (renderBackend == this.renderBackend) {
+            return;
+        }
+        this.renderBackend = renderBackend;
+        IVLCVout vout = player != null ? player.getVLCVout() : null;
+        if (vout != null && vout.areViewsAttached()) {
+            vout.detachViews();
+        }
+        if (videoTexture != null) {
+            removeView(videoTexture);
+            videoTexture = null;
+        } else {
+            removeView(videoSurface);
+            removeView(subtitleSurface);
+            videoSurface = null;
+            subtitleSurface = null;
+        }
+        surfaceAvailable = false;
+        if (renderBackend == RenderBackend.TextureView) {
+            generateTextureView();
+        } else {
+            generateSurfaceViews();
+        }
+        if (vout != null && !videoSuspended) {
+            attachViews(vout);
+        }
+        // 新视图按当前视频尺寸重新调整
+        appliedVout = null;
+        videoLayout.invalidate();
+        if (!layoutScheduled) {
+            layoutScheduled = true;
+            mainHandler.post(applyLayout);
+        }
+    }
+
+    /**
+     * 设置取帧回调，只在 {@link RenderBackend#TextureView} 后端下有效
+     *
+     * @param frameTap 取帧回调，null 表示停止取帧
+     */
+    public void setFrameTap(final FrameTap frameTap) {
+        if (!commands.canExecuteNow()) {
+            commands.enqueue(new Runnable() {
+                @Override
+                public void run() {
+                    setFrameTap(frameTap);
+                }
+            });
+            return;
+        }
+        if (frameTap != null && renderBackend != RenderBackend.TextureView) {
+            Log.w(TAG, "frame tap needs RenderBackend.TextureView");
+        }
+        this.frameTap = frameTap;
+    }
+
+    /**
+     * 取得渲染方式
+     *
+     * @return 渲染方式
+     */
+    public RenderBackend getRenderBackend() {
+        return renderBackend;
+    }
+
+    /**
+     * VLC 接口初始化（可选）.
+     * LibVLC 在 attach 时创建，因此需在 attach 之前调用；已 attach 时在下次 attach 时生效
+     *
+     * @param options VLC 参数，详情请参考 https://wiki.videolan.org/VLC_command-line_help/
+     */
+    public void init(final String... options) {
+        if (!commands.canExecuteNow()) {
+            commands.enqueue(new Runnable() {
+                @Override
+                public void run() {
+                    init(options);
+                }
+            });
+            return;
+        }
+        vlcOptions = options;
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (isInEditMode()) {
+            stateMachine.event(new Event<>(PlayerEvent.Attach));
+            return;
+        }
+        final int generation = ++attachGeneration;
+        final Context context = getContext();
+        final String[] options = vlcOptions;
+        NativeLifecycle.execute(new Runnable() {
+            @Override
+            public void run() {
+                final LibVLC engine;
+                final MediaPlayer newPlayer;
+                try {
+                    engine = LibVlcPool.acquire(context, options);
+                    newPlayer = MediaPlayerPool.obtain(engine);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "failed to create player", e);
+                    return;
+                }
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != attachGeneration) {
+                            releaseNative(newPlayer, null, engine);
+                            return;
+                        }
+                        onPlayerCreated(generation, engine, newPlayer);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 后台创建完成（主线程），绑定视图后再推进状态机，attach 之前的 start/setSubtitle 在此时生效.
+     * 和其他入口一样经过命令队列，排在更早提交的命令之后
+     */
+    private void onPlayerCreated(final int generation, final LibVLC engine, final MediaPlayer newPlayer) {
+        if (!commands.canExecuteNow()) {
+            commands.enqueue(new Runnable() {
+                @Override
+                public void run() {
+                    onPlayerCreated(generation, engine, newPlayer);
+                }
+            });
+            return;
+        }
+        if (generation != attachGeneration) {
+            // 排队期间已 detach
+            releaseNative(newPlayer, null, engine);
+            return;
+        }
+        vlc = engine;
+        player = newPlayer;
+        bindPlayer();
+        if (pendingPreload != null) {
+            Uri uri = pendingPreload;
+            pendingPreload = null;
+            preload(uri);
+        }
+        stateMachine.event(new Event<>(PlayerEvent.Attach));
+    }
+
+    /**
+     * 取得播放性能统计
+     *
+     * @return 播放性能统计
+     */
+    public PlaybackMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 打开当前媒体并开始播放；有对应的预加载时直接接管预加载的播放器
+     */
+    private void openMedia() {
+        resetProgressThrottles();
+        metrics.detach();
+        queuePreloaded = false;
+        decoderStopped = false;
+        length = 0;
+        if (preloader != null && preloader.canHandOver(source)) {
+            takeOverPreloadedPlayer();
+        } else {
+            releaseMedia();
+            media = newMedia(source);
+            player.setMedia(media);
+        }
+        suspendedVideoTrack = -1;
+        decoderChecked = false;
+        if (live != null) {
+            live.reset();
+        }
+        // 播放器可能是新取得的，记录的速率以它为准
+        liveRate = player.getRate();
+        applyRate(1f);
+        subtitles.attach(player);
+        player.play();
+    }
+
+    private void bindPlayer() {
+        player.setEventListener(this);
+        player.getVLCVout().addCallback(this);
+        if (!videoSuspended) {
+            attachViews(player.getVLCVout());
+        }
+    }
+
+    private void attachViews(IVLCVout vout) {
+        if (videoTexture != null) {
+            // 纹理尚不可用时等 onSurfaceTextureAvailable 再连接
+            SurfaceTexture texture = videoTexture.getSurfaceTexture();
+            if (texture == null) {
+                return;
+            }
+            vout.setVideoSurface(texture);
+            vout.attachViews();
+            // 直接给出 SurfaceTexture 时 libvlc 不知道视图大小
+            if (videoTexture.getWidth() > 0 && videoTexture.getHeight() > 0) {
+                vout.setWindowSize(videoTexture.getWidth(), videoTexture.getHeight());
+            }
+            return;
+        }
+        vout.setVideoView(videoSurface);
+        vout.setSubtitlesView(subtitleSurface);
+        vout.attachViews();
+    }
+
+    /**
+     * 设置纯音频模式（如切到后台继续播放声音）.
+     * 开启后关闭视频轨道并断开视频输出，播放器继续播放，不再解码和合成画面；关闭后重新连接视频输出，从当前位置恢复画面.
+     * 视频 Surface 被销毁（如 Activity 不可见）时同样自动断开，Surface 重建后自动恢复
+     *
+     * @param audioOnly 是否只播放声音
+     */
+    public void setAudioOnly(final boolean audioOnly) {
+        if (!commands.canExecuteNow()) {
+            commands.enqueue(new Runnable() {
+                @Override
+                public void run() {
+                    setAudioOnly(audioOnly);
+                }
+            });
+            return;
+        }
+        this.audioOnly = audioOnly;
+        if (audioOnly) {
+            suspendVideo();
+        } else {
+            resumeVideo();
+        }
+    }
+
+    /**
+     * 是否为纯音频模式
+     *
+     * @return 是否只播放声音
+     */
+    public boolean isAudioOnly() {
+        return audioOnly;
+    }
+
+    private void suspendVideo() {
+        if (videoSuspended) {
+            return;
+        }
+        videoSuspended = true;
+        if (player == null) {
+            return;
+        }
+        disableVideoTrack();
+        IVLCVout vout = player.getVLCVout();
+        if (vout.areViewsAttached()) {
+            vout.detachViews();
+        }
+    }
+
+    private void disableVideoTrack() {
+        int track = player.getVideoTrack();
+        if (track >= 0) {
+            suspendedVideoTrack = track;
+            player.setVideoTrack(-1);
+        }
+    }
+
+    /**
+     * 重新连接视频输出并恢复视频轨道，Surface 尚未可用时等 Surface 创建后再恢复
+     */
+    private void resumeVideo() {
+        if (!videoSuspended || !surfaceAvailable) {
+            return;
+        }
+        videoSuspended = false;
+        if (player == null) {
+            return;
+        }
+        IVLCVout vout = player.getVLCVout();
+        if (!vout.areViewsAttached()) {
+            attachViews(vout);
+        }
+        if (suspendedVideoTrack >= 0) {
+            player.setVideoTrack(suspendedVideoTrack);
+            suspendedVideoTrack = -1;
+            // 重新定位到当前位置，解码器从关键帧开始输出画面
+            if (state == PlayerState.Playing || state == PlayerState.Paused) {
+                if (player.isSeekable()) {
+                    player.setTime(player.getTime());
+                }
+            }
+        }
+    }
+
+    private void unbindPlayer() {
+        IVLCVout vout = player.getVLCVout();
+        vout.removeCallback(this);
+        player.setEventListener(null);
+        if (vout.areViewsAttached()) {
+            vout.detachViews();
+        }
+    }
+
+    /**
+     * 在 {@link NativeLifecycle} 线程中回收播放器、释放媒体并归还 LibVLC，参数可为 null
+     */
+    private static void releaseNative(final MediaPlayer player, final Media media, final LibVLC vlc) {
+        NativeLifecycle.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (player != null) {
+                    MediaPlayerPool.recycle(player);
+                }
+                if (media != null && !media.isReleased()) {
+                    media.release();
+                }
+                if (vlc != null) {
+                    LibVlcPool.release(vlc);
+                }
+            }
+        });
+    }
+
+    /**
+     * 用预加载的播放器替换当前播放器，视频输出仍使用本控件的 SurfaceView.
+     * libvlc 中每个播放器有自己的 IVLCVout，同一个 Surface 同时只能连接一个 vout，
+     * 所以无法把已连接的 Surface 直接转给新播放器，只能先断开旧 vout 再在同一轮消息循环内连接新 vout
+     */
+    private void takeOverPreloadedPlayer() {
+        MediaPlayer preloadedPlayer = preloader.handOverPlayer();
+        Media preloadedMedia = preloader.handOverMedia();
+        preloader = null;
+        unbindPlayer();
+        releaseNative(player, null, null);
+        releaseMedia();
+        media = preloadedMedia;
+        player = preloadedPlayer;
+        bindPlayer();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        // Surface 随 detach 销毁，这里必须同步完成；先执行排队中的命令，让它们作用于 detach 前的状态
+        commands.flush();
+        resetProgressThrottles();
+        mainHandler.removeCallbacks(applyLayout);
+        layoutScheduled = false;
+        layoutVout = null;
+        appliedVout = null;
+        videoLayout.invalidate();
+        cancelPreload();
+        attachGeneration++;
+        suspendedVideoTrack = -1;
+        if (player != null) {
+            // 记下位置，重新 attach 后从这里继续
+            if ((state == PlayerState.Playing || state == PlayerState.Paused) && !decoderStopped) {
+                pendingSeek = player.getTime();
+            }
+            decoderStopped = false;
+            unbindPlayer();
+        }
+        stateMachine.event(new Event<>(PlayerEvent.Detach));
+        metrics.detach();
+        releaseNative(player, media, vlc);
+        player = null;
+        media = null;
+        vlc = null;
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        widthSpec = widthMeasureSpec;
+        heightSpec = heightMeasureSpec;
+        if (!measured) {
+            measured = true;
+            // 测量前收到的视频尺寸（缓存信息或 onNewLayout）推迟到这里应用
+            if (layoutVideoWidth > 0 && layoutVideoHeight > 0 && !layoutScheduled) {
+                layoutScheduled = true;
+                mainHandler.post(applyLayout);
+            }
+        }
+        if (videoTexture != null) {
+            videoTexture.measure(widthMeasureSpec, heightMeasureSpec);
+        } else {
+            videoSurface.measure(widthMeasureSpec, heightMeasureSpec);
+            subtitleSurface.measure(widthMeasureSpec, heightMeasureSpec);
+        }
+        super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+        super.onLayout(changed, left, top, right, bottom);
+    }
+
+    /**
+     * 可否暂停
+     *
+     * @return 可否暂停
+     */
+    public boolean canPause() {
+        return true;
+    }
+
+    /**
+     * 可否后倒
+     *
+     * @return 可否后倒
+     */
+    public boolean canSeekBackward() {
+        if (isTimeshifting()) {
+            return true;
+        }
+        MediaPlayer player = this.player;
+        if (player == null) {
+            return false;
+        }
+        return player.isSeekable();
+    }
+
+    /**
+     * 可否快进
+     *
+     * @return 可否快进
+     */
+    public boolean canSeekForward() {
+        if (isTimeshifting()) {
+            return true;
+        }
+        MediaPlayer player = this.player;
+        if (player == null) {
+            return false;
+        }
+        return player.isSeekable() && player.getPosition() < 1;
+    }
+
+    /**
+     * 取得当前缓冲比例
+     *
+     * @return 当前缓冲比例 (0 - 100)
+     */
+    public int getBufferPercentage() {
+        return (int) (buffering);
+    }
+
+    /**
+     * 取得当前播放位置
+     *
+     * @return 当前播放位置(ms)
+     */
+    public int getCurrentPosition() {
+        MediaPlayer player = this.player;
+        if (player == null) {
+            return -1;
+        }
+        if (decoderStopped && pendingSeek >= 0) {
+            return (int) pendingSeek;
+        }
+        if (isTimeshifting()) {
+            return (int) (timeshiftBase + player.getTime());
+        }
+        return (int) player.getTime();
+    }
+
+    /**
+     * 取得视频长度，LibVLC 尚未解析出时使用媒体信息缓存中的值
+     *
+     * @return 视频长度(ms)，未知时为 -1
+     */
+    public int getDuration() {
+        TimeshiftBuffer timeshift = this.timeshift;
+        if (timeshift != null && isTimeshifting()) {
+            return (int) timeshift.getLiveTime();
+        }
+        Media media = this.media;
+        if (media != null) {
+            long duration = media.getDuration();
+            if (duration > 0) {
+                return (int) duration;
+            }
+        }
+        MediaMetadataCache.Metadata metadata = sourceMetadata;
+        if (metadata != null && metadata.getDuration() > 0) {
+            return (int) metadata.getDuration();
+        }
+        return -1;
+    }
+
+    /**
+     * 是否正在播放
+     *
+     * @return 是否正在播放
+     */
+    public boolean isPlaying() {
+        MediaPlayer player = this.player;
+        if (player == null) {
+            return false;
+        }
+        return player.isPlaying();
+    }
+
+    /**
+     * 暂停
+     */
+    public void pause() {
+        if (!commands.canExecuteNow()) {
+            commands.enqueue(new Runnable() {
+                @Override
+                public void run() {
+                    pause();
+                }
+            });
+            return;
+        }
+        stateMachine.event(new Event<>(PlayerEvent.Pause));
+    }
+
+    /**
+     * 继续播放
+     */
+    public void resume() {
+        if (!commands.canExecuteNow()) {
+            commands.enqueue(new Runnable() {
+                @Override
+                public void run() {
+                    resume();
+                }
+            });
+            return;
+        }
+        if (decoderStopped) {
+            reopenAtCurrentPosition();
+            return;
+        }
+        stateMachine.event(new Event<>(PlayerEvent.Resume));
+    }
+
+    /**
+     * 跳转至.
+     * 按时间跳转，不依赖视频长度；尚未开始播放时记下位置，开始播放后再跳转
+     *
+     * @param msec 跳转到的位置 (ms)
+     */
+    public void seekTo(final int msec) {
+        if (!commands.canExecuteNow()) {
+            commands.enqueue(new Runnable() {
+                @Override
+                public void run() {
+                    seekTo(msec);
+                }
+            });
+            return;
+        }
+        if (isTimeshifting()) {
+            seekTimeshift(msec);
+            return;
+        }
+        if ((state != PlayerState.Playing && state != PlayerState.Paused) || decoderStopped) {
+            pendingSeek = msec;
+            return;
+        }
+        long delay = seekThrottle.offer(msec, SystemClock.uptimeMillis());
+        if (delay == ProgressThrottle.NOW) {
+            metrics.markSeek(SystemClock.elapsedRealtime());
+            player.setTime(msec);
+        } else if (delay > 0) {
+            mainHandler.postDelayed(seekFlush, delay);
+        }
+    }
+
+    /**
+     * 设置跳转模式，对之后设置的视频生效
+     *
+     * @param seekMode 跳转模式
+     */
+    public void setSeekMode(final SeekMode seekMode) {
+        if (!commands.canExecuteNow()) {
+            commands.enqueue(new Runnable() {
+                @Override
+                public void run() {
+                    setSeekMode(seekMode);
+                }
+            });
+            return;
+        }
+        this.seekMode = seekMode;
+    }
+
+    /**
+     * 设置连续跳转（如拖动进度条）时两次实际跳转的最小间隔.
+     * 间隔内的跳转请求会被合并，只执行最后一个
+     *
+     * @param interval 最小间隔(ms)，0 表示不合并
+     */
+    public void setSeekInterval(final long interval) {
+        if (!commands.canExecuteNow()) {
+            commands.enqueue(new Runnable() {
+                @Override
+                public void run() {
+                    setSeekInterval(interval);
+                }
+            });
+            return;
+        }
+        seekThrottle.configure(interval, 0);
+    }
+
+    /**
+     * 设置网络媒体的本地缓存代理，对之后打开的视频生效
+     *
+     * @param cacheProxy 已启动的缓存代理，null 表示直接播放原地址
+     */
+    public void setCacheProxy(final MediaCacheProxy cacheProxy) {
+        if (!commands.canExecuteNow()) {
+            commands.enqueue(new Runnable() {
+                @Override
+                public void run() {
+                    setCacheProxy(cacheProxy);
+                }
+            });
+            return;
+        }
+        this.cacheProxy = cacheProxy;
+    }
+
+    /**
+     * 新建媒体，设置了缓存代理时网络地址经由代理播放
+     *
+     * @param uri 视频地址
+     * @return 已按当前设置配置的媒体
+     */
+    private Media newMedia(Uri uri) {
+        if (uri.equals(source) && isTimeshifting()) {
+            Media media = newTimeshiftMedia();
+            if (media != null) {
+                configureMedia(media, uri);
+                return media;
+            }
+        }
+        if (live != null) {
+            Media media = new Media(vlc, uri);
+            configureMedia(media, uri);
+            applyLiveOptions(media, uri);
+            return media;
+        }
+        Uri original = uri;
+        if (cacheProxy != null) {
+            uri = Uri.parse(cacheProxy.getProxyUrl(uri.toString()));
+        }
+        Media media = new Media(vlc, uri);
+        configureMedia(media, original);
+        applyCaching(media, original);
+        return media;
+    }
+
+    private Media newTimeshiftMedia() {
+        long offset = timeshiftOffset;
+        if (offset < 0) {
+            // 从最新的关键帧开始，还没有关键帧时由本地服务等待第一个
+            TimeshiftRing.Keyframe keyframe = timeshift.seek(-1);
+            offset = keyframe != null ? keyframe.offset : -1;
+            timeshiftBase = keyframe != null ? keyframe.time : timeshift.getLiveTime();
+        }
+        String url = timeshift.getPlaybackUrl(offset);
+        return url != null ? new Media(vlc, Uri.parse(url)) : null;
+    }
+
+    /**
+     * 设置直播模式（RTSP/RTP/UDP 等实时流），对之后打开的视频生效.
+     * 直播模式下按目标延迟设置较小的网络缓存，关闭时钟抖动补偿和同步，RTSP 使用 TCP 传输，不经过缓存代理和缓存策略；
+     * 播放中持续比较墙上时钟与播放时间的差值，延迟超出目标时提高播放速率追赶，超出太多（或暂停后恢复）时重新连接.
+     * 重新连接会再次回调 {@link PlaybackEvent#onStart()}；回调实现 {@link LiveEvent} 时定期收到延迟估计值
+     *
+     * @param targetLatency 目标延迟(ms)，0 表示关闭直播模式
+     */
+    public void setLiveMode(final long targetLatency) {
+        if (!commands.canExecuteNow()) {
+            commands.enqueue(new Runnable() {
+                @Override
+                public void run() {
+                    setLiveMode(targetLatency);
+                }
+            });
+            return;
+        }
+        if (targetLatency > 0) {
+            live = new LiveLatencyController(targetLatency, liveCaching(targetLatency));
+        } else {
+            live = null;
+            if (state == PlayerState.Playing || state == PlayerState.Paused) {
+                applyRate(1f);
+            }
+        }
+    }
+
+    private static int liveCaching(long targetLatency) {
+        return (int) Math.max(MIN_LIVE_CACHING, targetLatency / 2);
+    }
+
+    private void applyLiveOptions(Media media, Uri uri) {
+        for (String option : live.mediaOptions(uri.getScheme())) {
+            media.addOption(option);
+        }
+    }
+
+    private void applyRate(float rate) {
+        if (rate != liveRate) {
+            liveRate = rate;
+            player.setRate(rate);
+        }
+    }
+
+    /**
+     * 直播模式下收到播放时间时调整速率，必要时重新连接
+     *
+     * @param time 播放时间(ms)
+     */
+    private void trackLatency(long time) {
+        long now = SystemClock.uptimeMillis();
+        float rate = live.update(now, time);
+        if (rate == LiveLatencyController.RESYNC) {
+            if (verboseLogging) {
+                Log.v(TAG, "live latency " + live.getLatency() + "ms, resync");
+            }
+            stateMachine.event(new Event<>(PlayerEvent.AskForPlay));
+            return;
+        }
+        applyRate(rate);
+        PlaybackEvent playbackEvent = this.playbackEvent;
+        if (playbackEvent instanceof LiveEvent && now - lastLatencyReport >= LATENCY_REPORT_INTERVAL) {
+            lastLatencyReport = now;
+            ((LiveEvent) playbackEvent).onLatency(live.getLatency());
+        }
+    }
+
+    /**
+     * 设置缓存时长策略，对之后打开的视频生效.
+     * 默认使用所有控件共享的 {@link AdaptiveCachingStrategy}；init 参数中已指定 --network-caching / --file-caching 的不再按媒体设置
+     *
+     * @param cachingStrategy 缓存策略，null 表示使用 LibVLC 的全局值
+     */
+    public void setCachingStrategy(final CachingStrategy cachingStrategy) {
+        if (!commands.canExecuteNow()) {
+            commands.enqueue(new Runnable() {
+                @Override
+                public void run() {
+                    setCachingStrategy(cachingStrategy);
+                }
+            });
+            return;
+        }
+        this.cachingStrategy = cachingStrategy;
+    }
+
+    private void applyCaching(Media media, Uri uri) {
+        CachingStrategy strategy = cachingStrategy;
+        if (strategy == null) {
+            return;
+        }
+        int caching = strategy.getCaching(uri);
+        if (caching <= 0) {
+            return;
+        }
+        String scheme = uri.getScheme();
+        String option = scheme == null || scheme.equals("file") || scheme.equals("content") ? "file-caching" : "network-caching";
+        for (String vlcOption : vlcOptions) {
+            if (vlcOption.startsWith("--" + option)) {
+                return;
+            }
+        }
+        media.addOption(":" + option + "=" + caching);
+    }
+
+    /**
+     * 按当前设置配置新建的媒体
+     *
+     * @param media 媒体
+     * @param uri   视频地址
+     */
+    private void configureMedia(Media media, Uri uri) {
+        if (decoders.prefersSoftware(uri)) {
+            media.setHWDecoderEnabled(false, false);
+        } else if (coordinator != null) {
+            coordinator.configureMedia(this, media);
+        } else {
+            media.setHWDecoderEnabled(true, false);
+        }
+        if (seekMode == SeekMode.Fast) {
+            media.addOption(":input-fast-seek");
+        }
+    }
+
+    void setCoordinator(VideoWallCoordinator coordinator) {
+        this.coordinator = coordinator;
+    }
+
+    /**
+     * 是否正在播放或缓冲（暂停、停止时为 false）
+     */
+    boolean isActive() {
+        return state == PlayerState.Playing || state == PlayerState.Buffering;
+    }
+
+    /**
+     * 设置视频路径（本地文件）
+     *
+     * @param path 文件路径
+     */
+    public void setVideoPath(String path) {
+        setVideoURI(Uri.fromFile(new File(path)));
     }
 
     /**
-     * VLC 接口初始化（可选）
+     * 设置视频路径（网络视频）
      *
-     * @param options VLC 参数，详情请参考 https://wiki.videolan.org/VLC_command-line_help/
+     * @param uri 视频地址
      */
-    public void init(String... options) {
-        if (!isInEditMode()) {
-            if (vlc != null && !vlc.isReleased()) {
-                vlc.release();
-            }
-            vlc = new LibVLC(getContext(), new ArrayList<>(Arrays.asList(options)));
+    public void setVideoURI(final Uri uri) {
+        if (!commands.canExecuteNow()) {
+            commands.enqueue(new Runnable() {
+                @Override
+                public void run() {
+                    setVideoURI(uri);
+                }
+            });
+            return;
         }
-    }
-
-    @Override
-    protected void onAttachedToWindow() {
-        super.onAttachedToWindow();
-        if (!isInEditMode()) {
-            if (player != null && !player.isReleased()) {
-                player.release();
+        source = uri;
+        pendingSeek = -1;
+        releaseMedia();
+        loadMetadata(uri);
+        timeshiftOffset = -1;
+        if (timeshift != null && uri != null) {
+            try {
+                timeshift.record(uri.toString());
+            } catch (IOException e) {
+                Log.w(TAG, "timeshift unavailable, play directly", e);
             }
-            player = new MediaPlayer(vlc);
-            player.setEventListener(this);
-            player.getVLCVout().setVideoView(videoSurface);
-            player.getVLCVout().setSubtitlesView(subtitleSurface);
-            player.getVLCVout().addCallback(this);
-            player.getVLCVout().attachViews();
         }
-        stateMachine.event(new Event<>(PlayerEvent.Attach));
     }
 
-    @Override
-    protected void onDetachedFromWindow() {
-        if (player != null && !player.isReleased()) {
-            player.getVLCVout().removeCallback(this);
-            player.release();
-        }
-        if (media != null && !media.isReleased()) {
-            media.release();
-        }
-        if (vlc != null && !vlc.isReleased()) {
-            vlc.release();
+    /**
+     * 设置直播时移缓冲，之后设置的直播地址先录制到缓冲中再播放，暂停不再中断直播输入，可在缓冲窗口内跳转.
+     * 时移播放时 {@link #getCurrentPosition()}、{@link #getDuration()} 和 {@link #seekTo(int)} 使用从开始录制算起的时间，
+     * 可回退的最早时间见 {@link TimeshiftBuffer#getWindowStartTime()}
+     *
+     * @param timeshift 已启动的时移缓冲，null 表示直接播放
+     */
+    public void setTimeshift(final TimeshiftBuffer timeshift) {
+        if (!commands.canExecuteNow()) {
+            commands.enqueue(new Runnable() {
+                @Override
+                public void run() {
+                    setTimeshift(timeshift);
+                }
+            });
+            return;
         }
-        super.onDetachedFromWindow();
+        this.timeshift = timeshift;
     }
 
-    @Override
-    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
-        widthMode = MeasureSpec.getMode(widthMeasureSpec);
-        heightMode = MeasureSpec.getMode(heightMeasureSpec);
-        videoSurface.measure(widthMeasureSpec, heightMeasureSpec);
-        subtitleSurface.measure(widthMeasureSpec, heightMeasureSpec);
-        super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+    /**
+     * 当前视频是否经由时移缓冲播放
+     */
+    private boolean isTimeshifting() {
+        TimeshiftBuffer timeshift = this.timeshift;
+        Uri source = this.source;
+        return timeshift != null && source != null && timeshift.isRecording(source.toString());
     }
 
-    @Override
-    protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
-        super.onLayout(changed, left, top, right, bottom);
+    /**
+     * 在时移窗口内跳转：按关键帧索引找到不晚于目标的位置，从那里重新打开
+     */
+    private void seekTimeshift(long msec) {
+        TimeshiftRing.Keyframe keyframe = timeshift.seek(msec);
+        if (keyframe == null) {
+            return;
+        }
+        timeshiftOffset = keyframe.offset;
+        timeshiftBase = keyframe.time;
+        if (state == PlayerState.Playing || state == PlayerState.Paused || state == PlayerState.Buffering) {
+            stateMachine.event(new Event<>(PlayerEvent.AskForPlay));
+        }
     }
 
     /**
-     * 可否暂停
+     * 设置媒体信息缓存，之后设置的视频在播放前即可取得时长，并按缓存的视频尺寸预先调整大小
      *
-     * @return 可否暂停
+     * @param metadataCache 媒体信息缓存，null 表示不使用
      */
-    public boolean canPause() {
-        return true;
+    public void setMetadataCache(final MediaMetadataCache metadataCache) {
+        if (!commands.canExecuteNow()) {
+            commands.enqueue(new Runnable() {
+                @Override
+                public void run() {
+                    setMetadataCache(metadataCache);
+                }
+            });
+            return;
+        }
+        this.metadataCache = metadataCache;
+    }
+
+    private void loadMetadata(final Uri uri) {
+        sourceMetadata = null;
+        if (metadataCache == null || uri == null) {
+            return;
+        }
+        MediaMetadataCache.Metadata metadata = metadataCache.get(uri);
+        if (metadata != null) {
+            applyMetadata(metadata);
+            return;
+        }
+        metadataCache.probe(uri, new MediaMetadataCache.Callback() {
+            @Override
+            public void onMetadata(Uri probed, MediaMetadataCache.Metadata metadata) {
+                if (metadata != null && probed.equals(source) && sourceMetadata == null) {
+                    applyMetadata(metadata);
+                }
+            }
+        });
     }
 
     /**
-     * 可否后倒
-     *
-     * @return 可否后倒
+     * 按缓存的视频尺寸预先调整大小，开始播放后的 onNewLayout 尺寸相同时不再跳动；还没有测量过时记下尺寸，在首次测量后应用
      */
-    public boolean canSeekBackward() {
-        if (player == null) {
-            return false;
+    private void applyMetadata(MediaMetadataCache.Metadata metadata) {
+        sourceMetadata = metadata;
+        if (metadata.getVideoWidth() <= 0 || metadata.getVideoHeight() <= 0) {
+            return;
+        }
+        layoutVideoWidth = metadata.getVideoWidth();
+        layoutVideoHeight = metadata.getVideoHeight();
+        layoutSarNum = metadata.getSarNum();
+        layoutSarDen = metadata.getSarDen();
+        if (!layoutScheduled) {
+            layoutScheduled = true;
+            mainHandler.post(applyLayout);
         }
-        return player.isSeekable();
     }
 
     /**
-     * 可否快进
+     * 预加载媒体.
+     * 提前解析并在后台播放器中缓冲，之后对同一地址调用 {@link #setVideoURI(Uri)} 和 {@link #start()} 时直接接管，
+     * 省去打开和缓冲的时间。同一时间只保留一个预加载，对正在预加载的地址重复调用无操作
      *
-     * @return 可否快进
+     * @param uri 视频地址
      */
-    public boolean canSeekForward() {
-        if (player == null) {
-            return false;
+    public void preload(final Uri uri) {
+        if (!commands.canExecuteNow()) {
+            commands.enqueue(new Runnable() {
+                @Override
+                public void run() {
+                    preload(uri);
+                }
+            });
+            return;
         }
-        return player.isSeekable() && player.getPosition() < 1;
+        if (isInEditMode()) {
+            return;
+        }
+        // 已在预加载同一地址时保留
+        if (preloader != null ? preloader.isLoading(uri) : uri.equals(pendingPreload)) {
+            return;
+        }
+        cancelPreload();
+        if (vlc == null) {
+            pendingPreload = uri;
+            return;
+        }
+        preloader = new MediaPreloader(vlc, uri, newMedia(uri));
     }
 
     /**
-     * 取得当前缓冲比例
+     * 预加载本地文件
      *
-     * @return 当前缓冲比例 (0 - 100)
+     * @param path 文件路径
+     * @see #preload(Uri)
      */
-    public int getBufferPercentage() {
-        return (int) (buffering);
+    public void preload(String path) {
+        preload(Uri.fromFile(new File(path)));
     }
 
     /**
-     * 取得当前播放位置
-     *
-     * @return 当前播放位置(ms)
+     * 取消预加载
      */
-    public int getCurrentPosition() {
-        if (player == null) {
-            return -1;
+    public void cancelPreload() {
+        if (!commands.canExecuteNow()) {
+            commands.enqueue(new Runnable() {
+                @Override
+                public void run() {
+                    cancelPreload();
+                }
+            });
+            return;
+        }
+        pendingPreload = null;
+        if (preloader != null) {
+            final MediaPreloader canceled = preloader;
+            preloader = null;
+            canceled.cancel();
+            NativeLifecycle.execute(new Runnable() {
+                @Override
+                public void run() {
+                    canceled.release();
+                }
+            });
         }
-        return (int) player.getTime();
     }
 
     /**
-     * 取得视频长度
+     * 取得播放队列
      *
-     * @return 视频长度(ms)
+     * @return 播放队列
      */
-    public int getDuration() {
-        if (media != null) {
-            return (int) media.getDuration();
-        }
-        return -1;
+    public Playlist getPlaylist() {
+        return playlist;
     }
 
     /**
-     * 是否正在播放
+     * 添加到播放队列.
+     * 队列中的下一项会在当前项结束前预加载，结束时无缝切换
      *
-     * @return 是否正在播放
+     * @param uri 视频地址
      */
-    public boolean isPlaying() {
-        if (player == null) {
-            return false;
+    public void enqueue(final Uri uri) {
+        if (!commands.canExecuteNow()) {
+            commands.enqueue(new Runnable() {
+                @Override
+                public void run() {
+                    enqueue(uri);
+                }
+            });
+            return;
         }
-        return player.isPlaying();
+        playlist.add(uri);
     }
 
     /**
-     * 暂停
+     * 添加本地文件到播放队列
+     *
+     * @param path 文件路径
      */
-    public void pause() {
-        stateMachine.event(new Event<>(PlayerEvent.Pause));
+    public void enqueue(String path) {
+        enqueue(Uri.fromFile(new File(path)));
     }
 
     /**
-     * 继续播放
+     * 设置播放队列的循环模式
+     *
+     * @param repeatMode 循环模式
      */
-    public void resume() {
-        stateMachine.event(new Event<>(PlayerEvent.Resume));
+    public void setRepeatMode(final Playlist.RepeatMode repeatMode) {
+        if (!commands.canExecuteNow()) {
+            commands.enqueue(new Runnable() {
+                @Override
+                public void run() {
+                    setRepeatMode(repeatMode);
+                }
+            });
+            return;
+        }
+        playlist.setRepeatMode(repeatMode);
     }
 
     /**
-     * 跳转至
+     * 播放队列中的指定项
      *
-     * @param msec 跳转到的位置 (ms)
+     * @param index 位置
      */
-    public void seekTo(int msec) {
-        if (player == null) {
+    public void skipTo(final int index) {
+        if (!commands.canExecuteNow()) {
+            commands.enqueue(new Runnable() {
+                @Override
+                public void run() {
+                    skipTo(index);
+                }
+            });
             return;
         }
-        player.setPosition((float) ((double) msec / (double) media.getDuration()));
+        playlist.setIndex(index);
+        setVideoURI(playlist.current());
+        start();
     }
 
     /**
-     * 设置视频路径（本地文件）
+     * 播放队列中的下一项
      *
-     * @param path 文件路径
+     * @return 是否有下一项；在其他线程调用时按调用时的队列判断
      */
-    public void setVideoPath(String path) {
-        media = new Media(vlc, path);
-        media.setHWDecoderEnabled(true, false);
+    public boolean skipToNext() {
+        if (!commands.canExecuteNow()) {
+            if (playlist.peekNext() == null) {
+                return false;
+            }
+            commands.enqueue(new Runnable() {
+                @Override
+                public void run() {
+                    skipToNext();
+                }
+            });
+            return true;
+        }
+        int next = playlist.nextIndex();
+        if (next < 0) {
+            return false;
+        }
+        skipTo(next);
+        return true;
     }
 
     /**
-     * 设置视频路径（网络视频）
+     * 播放队列中的上一项
      *
-     * @param uri 视频地址
+     * @return 是否有上一项；在其他线程调用时按调用时的队列判断
      */
-    public void setVideoURI(Uri uri) {
-        media = new Media(vlc, uri);
-        media.setHWDecoderEnabled(true, false);
+    public boolean skipToPrevious() {
+        if (!commands.canExecuteNow()) {
+            if (playlist.previousIndex() < 0) {
+                return false;
+            }
+            commands.enqueue(new Runnable() {
+                @Override
+                public void run() {
+                    skipToPrevious();
+                }
+            });
+            return true;
+        }
+        int previous = playlist.previousIndex();
+        if (previous < 0) {
+            return false;
+        }
+        skipTo(previous);
+        return true;
+    }
+
+    private void releaseMedia() {
+        metrics.detach();
+        if (media != null) {
+            releaseNative(null, media, null);
+            media = null;
+        }
     }
 
     /**
      * 开始播放
+     * 未设置视频地址而播放队列不为空时，从队列的当前项开始播放；
+     * 当前视频暂停中时从暂停处继续，正在打开时不重复打开
      */
     public void start() {
-        if (media != null) {
+        if (!commands.canExecuteNow()) {
+            commands.enqueue(new Runnable() {
+                @Override
+                public void run() {
+                    start();
+                }
+            });
+            return;
+        }
+        if (media != null && state == PlayerState.Paused) {
+            resume();
+            return;
+        }
+        if (media != null && (state == PlayerState.Buffering || state == PlayerState.Playing)) {
+            // 当前媒体已在播放；切换媒体时 setVideoURI 已释放 media
+            return;
+        }
+        if (source == null && playlist.current() != null) {
+            setVideoURI(playlist.current());
+        }
+        if (source != null) {
+            metrics.markStart(SystemClock.elapsedRealtime());
             stateMachine.event(new Event<>(PlayerEvent.AskForPlay));
         }
     }
@@ -437,6 +1688,15 @@ public class VlcVideoView extends FrameLayout implements MediaPlayer.EventListen
      * 停止播放
      */
     public void stopPlayback() {
+        if (!commands.canExecuteNow()) {
+            commands.enqueue(new Runnable() {
+                @Override
+                public void run() {
+                    stopPlayback();
+                }
+            });
+            return;
+        }
         stateMachine.event(new Event<>(PlayerEvent.Stop));
     }
 
@@ -453,31 +1713,93 @@ public class VlcVideoView extends FrameLayout implements MediaPlayer.EventListen
      * @param path 字幕文件路径
      */
     public void setSubtitle(String path) {
-        if (path != null) {
-            setSubtitle(Uri.fromFile(new File(path)));
-        } else {
-            subtitle = null;
-            stateMachine.event(new Event<>(PlayerEvent.SetSubtitle));
+        setSubtitle(path != null ? Uri.fromFile(new File(path)) : null);
+    }
+
+    /**
+     * 设置字幕地址.
+     * 已添加过的字幕直接切换轨道，不重新加载
+     *
+     * @param uri 字幕地址（本地或在线），null 表示关闭字幕
+     */
+    public void setSubtitle(final Uri uri) {
+        if (!commands.canExecuteNow()) {
+            commands.enqueue(new Runnable() {
+                @Override
+                public void run() {
+                    setSubtitle(uri);
+                }
+            });
+            return;
+        }
+        subtitles.select(uri);
+        stateMachine.event(new Event<>(PlayerEvent.SetSubtitle));
+    }
+
+    /**
+     * 添加备选字幕，不改变当前选择.
+     * 字幕在后台预先准备，打开视频时与其他字幕一起加载，之后用 {@link #setSubtitle(Uri)} 切换
+     *
+     * @param uri 字幕地址（本地或在线）
+     */
+    public void addSubtitle(final Uri uri) {
+        if (!commands.canExecuteNow()) {
+            commands.enqueue(new Runnable() {
+                @Override
+                public void run() {
+                    addSubtitle(uri);
+                }
+            });
+            return;
         }
+        subtitles.add(uri);
     }
 
     /**
-     * 设置字幕地址
+     * 添加备选字幕文件
      *
-     * @param uri 在线字幕地址
+     * @param path 字幕文件路径
+     * @see #addSubtitle(Uri)
+     */
+    public void addSubtitle(String path) {
+        addSubtitle(Uri.fromFile(new File(path)));
+    }
+
+    /**
+     * 移除所有字幕，对之后打开的视频生效；当前视频的字幕同时关闭
      */
-    public void setSubtitle(Uri uri) {
-        subtitle = uri;
+    public void clearSubtitles() {
+        if (!commands.canExecuteNow()) {
+            commands.enqueue(new Runnable() {
+                @Override
+                public void run() {
+                    clearSubtitles();
+                }
+            });
+            return;
+        }
+        subtitles.clear();
         stateMachine.event(new Event<>(PlayerEvent.SetSubtitle));
     }
 
     @Override
-    public void onEvent(MediaPlayer.Event event) {
+    public void onEvent(final MediaPlayer.Event event) {
+        if (!commands.canExecuteNow()) {
+            commands.enqueue(new Runnable() {
+                @Override
+                public void run() {
+                    onEvent(event);
+                }
+            });
+            return;
+        }
         switch (event.type) {
             case MediaPlayer.Event.Buffering:
                 buffering = event.getBuffering();
-                Log.v(TAG, "buffering: " + Math.round(buffering) + "%");
-                stateMachine.event(new Event<>(PlayerEvent.Buffering, buffering));
+                if (verboseLogging) {
+                    Log.v(TAG, "buffering: " + Math.round(buffering) + "%");
+                }
+                progressDispatcher.onBuffering(buffering, state);
                 break;
             case MediaPlayer.Event.Stopped:
                 stateMachine.event(new Event<>(PlayerEvent.Stopped));
@@ -487,11 +1809,32 @@ public class VlcVideoView extends FrameLayout implements MediaPlayer.EventListen
             case MediaPlayer.Event.Playing:
                 stateMachine.event(new Event<>(PlayerEvent.Play));
                 break;
+            case MediaPlayer.Event.Vout:
+            case MediaPlayer.Event.ESAdded:
+                if (player != null) {
+                    subtitles.onTracksChanged(player);
+                    checkDecoder();
+                }
+                break;
             case MediaPlayer.Event.EndReached:
-                stateMachine.event(new Event<>(PlayerEvent.End));
+                if (!advanceToPreloaded()) {
+                    stateMachine.event(new Event<>(PlayerEvent.End));
+                }
                 break;
             case MediaPlayer.Event.TimeChanged:
-                stateMachine.event(new Event<>(PlayerEvent.Position, (int) event.getTimeChanged()));
+                long time = event.getTimeChanged();
+                if (length <= 0 && !queuePreloaded) {
+                    // Playing 时长度可能还未知（如部分网络流），随播放重新读取
+                    length = player.getLength();
+                }
+                if (!queuePreloaded && length > 0 && length - time <= QUEUE_PRELOAD_LEAD) {
+                    preloadQueueNext();
+                }
+                progressDispatcher.onTimeChanged(isTimeshifting() ? timeshiftBase + time : time, state);
+                if (live != null && state == PlayerState.Playing && !isTimeshifting()) {
+                    // 时移播放的位置本来就落后于直播，不按延迟追赶或重连
+                    trackLatency(time);
+                }
                 break;
             case MediaPlayer.Event.EncounteredError:
                 stateMachine.event(new Event<>(PlayerEvent.Error));
@@ -501,57 +1844,103 @@ public class VlcVideoView extends FrameLayout implements MediaPlayer.EventListen
         }
     }
 
+    /**
+     * 队列中的下一项已预加载完成时直接切换，不经过 Attached 和 advanceQueue 的一轮往返
+     *
+     * @return 是否已切换
+     */
+    private boolean advanceToPreloaded() {
+        int next = playlist.nextIndex();
+        Uri uri = playlist.peekNext();
+        if (next < 0 || state != PlayerState.Playing || preloader == null || !preloader.canHandOver(uri)) {
+            return false;
+        }
+        if (playbackEvent != null) {
+            playbackEvent.onEnded();
+        }
+        playlist.setIndex(next);
+        setVideoURI(uri);
+        // 从 Playing 直接进入 Buffering，openMedia 中接管预加载的播放器
+        stateMachine.event(new Event<>(PlayerEvent.AskForPlay));
+        return true;
+    }
+
+    private void preloadQueueNext() {
+        queuePreloaded = true;
+        Uri next = playlist.peekNext();
+        if (next != null) {
+            preload(next);
+        }
+    }
+
     @Override
     public void onNewLayout(IVLCVout vlcVout, int width, int height, int visibleWidth, int visibleHeight, int sarNum, int sarDen) {
+        if (verboseLogging) {
+            Log.v(TAG, "newLayout:" + width + "x" + height + ", visible:" + visibleWidth + "x" + visibleHeight + ", sar:" + sarNum + "/" + sarDen);
+        }
+        layoutVout = vlcVout;
+        layoutVideoWidth = width;
+        layoutVideoHeight = height;
+        layoutSarNum = sarNum;
+        layoutSarDen = sarDen;
+        if (!layoutScheduled) {
+            layoutScheduled = true;
+            mainHandler.post(applyLayout);
+        }
+    }
+
+    /**
+     * 按最近一次 onNewLayout 的参数调整尺寸.
+     * 同一轮消息循环内的多次 onNewLayout 只处理最后一次；视频尺寸、像素宽高比和测量规格都没变时直接跳过
+     */
+    private void applyVideoLayout() {
+        // 按缓存信息预先调整时还没有 vout
+        IVLCVout vlcVout = layoutVout;
+        if (layoutVideoWidth <= 0 || layoutVideoHeight <= 0 || !measured) {
+            return;
+        }
+        boolean changed = videoLayout.update(layoutVideoWidth, layoutVideoHeight, layoutSarNum, layoutSarDen, widthSpec, heightSpec);
+        if (!changed && vlcVout == appliedVout) {
+            return;
+        }
+        appliedVout = vlcVout;
+
         int oldWidth = getMeasuredWidth();
         int oldHeight = getMeasuredHeight();
-        int newWidth = oldWidth;
-        int newHeight = oldHeight;
-        Log.v(TAG, "measuredWH:" + newWidth + "," + newHeight);
-        Log.v(TAG, "newLayout:" + width + "," + height);
-        Log.v(TAG, "mode:" + (widthMode == MeasureSpec.AT_MOST ? "AT_MOST" : widthMode == MeasureSpec.UNSPECIFIED ? "UNSPECIFIED" : "EX") + "," + (heightMode == MeasureSpec.AT_MOST ? "AT_MOST" : heightMode == MeasureSpec.UNSPECIFIED ? "UNSPECIFIED" : "EX"));
-
-        double widthRate = (double) width / (double) oldWidth;
-        double heightRate = (double) height / (double) oldHeight;
+        int widthMode = MeasureSpec.getMode(widthSpec);
+        int heightMode = MeasureSpec.getMode(heightSpec);
+        videoLayout.measure(layoutVideoWidth, layoutVideoHeight, oldWidth, oldHeight, widthMode, heightMode);
+        int newWidth = videoLayout.width;
+        int newHeight = videoLayout.height;
 
-        Log.v(TAG, "ratios:" + widthRate + ":" + heightRate);
+        if (verboseLogging) {
+            Log.v(TAG, "layout: " + oldWidth + "x" + oldHeight + " -> " + newWidth + "x" + newHeight);
+        }
 
-        if (widthRate > heightRate) {
-            if (widthMode == MeasureSpec.AT_MOST) {
-                newWidth = Math.min(width, oldWidth);
-            } else if (widthMode == MeasureSpec.UNSPECIFIED) {
-                newWidth = width;
-            }
-            if (heightMode == MeasureSpec.AT_MOST || heightMode == MeasureSpec.UNSPECIFIED) {
-                newHeight = (int) Math.ceil((double) newWidth / (double) width * (double) height);
+        if (videoTexture != null) {
+            ViewGroup.LayoutParams textureParams = videoTexture.getLayoutParams();
+            if (textureParams.width != newWidth || textureParams.height != newHeight) {
+                textureParams.width = newWidth;
+                textureParams.height = newHeight;
+                videoTexture.setLayoutParams(textureParams);
             }
         } else {
-            if (heightMode == MeasureSpec.AT_MOST) {
-                newHeight = Math.min(height, oldHeight);
-            } else if (heightMode == MeasureSpec.UNSPECIFIED) {
-                newHeight = height;
-            }
-            if (widthMode == MeasureSpec.AT_MOST || widthMode == MeasureSpec.UNSPECIFIED) {
-                newWidth = (int) Math.ceil((double) newHeight / (double) height * (double) width);
-            }
+            videoSurface.getHolder().setFixedSize(newWidth, newHeight);
+            subtitleSurface.getHolder().setFixedSize(newWidth, newHeight);
+        }
+        if (vlcVout != null) {
+            vlcVout.setWindowSize(newWidth, newHeight);
         }
-
-        Log.v(TAG, "changed:" + newWidth + "," + newHeight);
-
-        videoSurface.getHolder().setFixedSize(newWidth, newHeight);
-        subtitleSurface.getHolder().setFixedSize(newWidth, newHeight);
-        vlcVout.setWindowSize(newWidth, newHeight);
 
         if (newHeight != oldHeight || newWidth != oldWidth) {
             ViewGroup.LayoutParams layoutParams = getLayoutParams();
-            if (widthMode == MeasureSpec.UNSPECIFIED || widthMode == MeasureSpec.AT_MOST) {
+            if (VideoLayout.isWrapping(widthMode)) {
                 layoutParams.width = newWidth;
             }
-            if (heightMode == MeasureSpec.UNSPECIFIED || heightMode == MeasureSpec.AT_MOST) {
+            if (VideoLayout.isWrapping(heightMode)) {
                 layoutParams.height = newHeight;
             }
             setLayoutParams(layoutParams);
-            postInvalidate();
         }
     }
 
@@ -561,37 +1950,149 @@ public class VlcVideoView extends FrameLayout implements MediaPlayer.EventListen
 
     @Override
     public void onSurfacesDestroyed(IVLCVout vlcVout) {
-        vlcVout.detachViews();
+        // 声音继续播放，Surface 重建后恢复画面
+        suspendVideo();
+        if (vlcVout.areViewsAttached()) {
+            vlcVout.detachViews();
+        }
     }
 
     @Override
-    public void onHardwareAccelerationError(IVLCVout vlcVout) {
+    public void onHardwareAccelerationError(final IVLCVout vlcVout) {
+        if (!commands.canExecuteNow()) {
+            commands.enqueue(new Runnable() {
+                @Override
+                public void run() {
+                    onHardwareAccelerationError(vlcVout);
+                }
+            });
+            return;
+        }
+        if (player == null || source == null || decoders.prefersSoftware(source)) {
+            return;
+        }
+        Log.w(TAG, "hardware decoder failed, fall back to software decoding");
+        decoders.markSoftware(source, DecoderCapabilities.formatOf(media));
+        reopenAtCurrentPosition();
+    }
+
+    /**
+     * 视频轨道出现后对照解码能力记录：该格式硬件解码失败过时，不等再次失败，直接改用软件解码重新打开
+     */
+    private void checkDecoder() {
+        if (decoderChecked || decoders.prefersSoftware(source)
+                || (coordinator != null && !coordinator.usesHardware(this))) {
+            return;
+        }
+        String format = DecoderCapabilities.formatOf(media);
+        if (format == null) {
+            return;
+        }
+        decoderChecked = true;
+        if (decoders.isSoftwareOnly(format)) {
+            decoders.markSoftware(source, format);
+            reopenAtCurrentPosition();
+        }
+    }
+
+    /**
+     * 暂停中停止播放器，释放它的解码器后归还硬件解码器（协调器调用）.
+     * 暂停的播放器仍持有 MediaCodec，只有停止后才能把硬件解码器让给其他控件；继续播放时从暂停处重新打开
+     */
+    void stopDecoder() {
+        if (!commands.canExecuteNow()) {
+            commands.enqueue(new Runnable() {
+                @Override
+                public void run() {
+                    stopDecoder();
+                }
+            });
+            return;
+        }
+        if (state != PlayerState.Paused || decoderStopped) {
+            return;
+        }
+        long time = player.getTime();
+        if (time > 0) {
+            pendingSeek = time;
+        }
+        decoderStopped = true;
+        player.stop();
+        if (coordinator != null) {
+            coordinator.releaseDecoder(this);
+        }
+    }
 
+    /**
+     * 重新打开当前媒体并重新选择解码方式，从当前位置继续（协调器调用）
+     */
+    void reopenDecoder() {
+        if (!commands.canExecuteNow()) {
+            commands.enqueue(new Runnable() {
+                @Override
+                public void run() {
+                    reopenDecoder();
+                }
+            });
+            return;
+        }
+        reopenAtCurrentPosition();
+    }
+
+    /**
+     * 重新打开当前媒体，从当前位置继续；归还硬件解码器，打开时按解码能力记录和协调器的余量重新配置
+     */
+    private void reopenAtCurrentPosition() {
+        if (state != PlayerState.Buffering && state != PlayerState.Playing && state != PlayerState.Paused) {
+            return;
+        }
+        if (coordinator != null) {
+            coordinator.releaseDecoder(this);
+        }
+        long time = decoderStopped ? pendingSeek : player.getTime();
+        if (isTimeshifting()) {
+            // 时移播放按关键帧位置重新打开
+            pendingSeek = -1;
+            TimeshiftRing.Keyframe keyframe = timeshift.seek(timeshiftBase + Math.max(0, time));
+            if (keyframe != null) {
+                timeshiftOffset = keyframe.offset;
+                timeshiftBase = keyframe.time;
+            }
+        } else if (time > 0) {
+            pendingSeek = time;
+        }
+        stateMachine.event(new Event<>(PlayerEvent.AskForPlay));
     }
 
-    private enum PlayerState {
-        WaitingAttach,
-        WaitingAttachPlay,
-        Attached,
-        Buffering,
-        Playing,
-        Stopping,
-        Paused
+    /**
+     * 渲染方式
+     */
+    public enum RenderBackend {
+        /**
+         * 视频和字幕各用一个 SurfaceView，由系统直接合成，开销最小；
+         * 但不能随视图做动画、缩放和裁剪，在滚动容器中可能闪黑
+         */
+        SurfaceView,
+        /**
+         * 单个 TextureView，和普通视图一样参与绘制，适合列表中的小预览；
+         * 没有独立的字幕层，字幕由 libvlc 叠加在视频画面上；需要开启硬件加速
+         */
+        TextureView
     }
 
-    private enum PlayerEvent {
-        Attach,
-        AskForPlay,
-        SetSubtitle,
-        Play,
-        Stop,
-        Stopped,
-        Buffering,
-        Position,
-        Pause,
-        Resume,
-        End,
-        Error
+    /**
+     * 跳转模式.
+     * libvlc 在打开媒体时决定跳转方式，因此只对之后设置的视频生效
+     */
+    public enum SeekMode {
+        /**
+         * 精确跳转，解码到目标时间点
+         */
+        Precise,
+        /**
+         * 快速跳转，跳到目标附近的关键帧
+         */
+        Fast
     }
 
     /**
@@ -632,4 +2133,16 @@ public class VlcVideoView extends FrameLayout implements MediaPlayer.EventListen
          */
         void onPosition(int msec);
     }
+
+    /**
+     * 直播模式的回调事件，见 {@link #setLiveMode(long)}
+     */
+    public interface LiveEvent extends PlaybackEvent {
+        /**
+         * 当前延迟（估计值），约每秒一次
+         *
+         * @param latency 毫秒数
+         */
+        void onLatency(long latency);
+    }
 }
@@ -0,0 +1,77 @@
+package tech.yaog.widgets;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class ByteRangesTest {
+
+    @Test
+    public void mergesOverlappingAndAdjacentRanges() {
+        ByteRanges ranges = new ByteRanges();
+        ranges.add(0, 10);
+        ranges.add(20, 30);
+        ranges.add(10, 15);
+        ranges.add(25, 40);
+        assertEquals(15, ranges.cachedEnd(0));
+        assertEquals(40, ranges.cachedEnd(20));
+        assertEquals(35, ranges.size());
+
+        ranges.add(5, 22);
+        assertEquals(40, ranges.cachedEnd(0));
+        assertEquals(40, ranges.size());
+    }
+
+    @Test
+    public void reportsGapsAndNextStart() {
+        ByteRanges ranges = new ByteRanges();
+        ranges.add(100, 200);
+        ranges.add(300, 400);
+        assertEquals(50, ranges.cachedEnd(50));
+        assertEquals(100, ranges.nextStart(50));
+        assertEquals(250, ranges.cachedEnd(250));
+        assertEquals(300, ranges.nextStart(250));
+        assertEquals(Long.MAX_VALUE, ranges.nextStart(350));
+        assertEquals(200, ranges.cachedEnd(199));
+        assertEquals(200, ranges.cachedEnd(200));
+    }
+
+    @Test
+    public void ignoresEmptyRanges() {
+        ByteRanges ranges = new ByteRanges();
+        ranges.add(10, 10);
+        ranges.add(20, 5);
+        assertEquals(0, ranges.size());
+    }
+
+    @Test
+    public void growsPastInitialCapacity() {
+        ByteRanges ranges = new ByteRanges();
+        for (int i = 0; i < 100; i++) {
+            ranges.add(i * 10, i * 10 + 5);
+        }
+        assertEquals(500, ranges.size());
+        assertEquals(995, ranges.cachedEnd(990));
+        assertEquals(980, ranges.nextStart(975));
+    }
+
+    @Test
+    public void survivesSerialization() throws Exception {
+        ByteRanges ranges = new ByteRanges();
+        ranges.add(0, 10);
+        ranges.add(50, 60);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ranges.write(new DataOutputStream(bytes));
+
+        ByteRanges restored = new ByteRanges();
+        restored.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(20, restored.size());
+        assertEquals(10, restored.cachedEnd(0));
+        assertEquals(50, restored.nextStart(10));
+    }
+}
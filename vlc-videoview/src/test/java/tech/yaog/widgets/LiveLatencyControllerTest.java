@@ -0,0 +1,159 @@
+package tech.yaog.widgets;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LiveLatencyControllerTest {
+
+    private static final long TARGET = 1000;
+    private static final long BASE = 500;
+    private static final long TICK = 200;
+    private static final float DELTA = 0.0001f;
+
+    private LiveLatencyController controller;
+    /**
+     * 模拟的单调时钟和播放时间
+     */
+    private long now;
+    private double time;
+    private float rate;
+
+    @Before
+    public void setUp() {
+        controller = new LiveLatencyController(TARGET, BASE);
+        now = 10000;
+        time = 0;
+        rate = 1f;
+    }
+
+    @Test
+    public void keepsNormalRateWhenPlaybackKeepsUp() {
+        for (int i = 0; i < 50; i++) {
+            assertEquals(1f, play(TICK), DELTA);
+        }
+        assertEquals(BASE, controller.getLatency());
+    }
+
+    @Test
+    public void catchesUpAfterStallAndReturnsToNormalRate() {
+        play(TICK);
+        // 卡顿 800ms：墙上时钟前进，播放时间不动
+        assertEquals(LiveLatencyController.CATCH_UP_RATE, stall(800), DELTA);
+        assertEquals(BASE + 800, controller.getLatency());
+
+        int ticks = 0;
+        while (rate != 1f) {
+            play(TICK);
+            assertTrue("never caught up", ++ticks < 100);
+        }
+        assertTrue(controller.getLatency() <= TARGET);
+        // 按 1.15 倍追赶 300ms 需要约 2 秒
+        assertTrue(ticks >= 9);
+    }
+
+    @Test
+    public void keepsCatchingUpWithinTolerance() {
+        play(TICK);
+        stall(700);
+        assertEquals(LiveLatencyController.CATCH_UP_RATE, rate, DELTA);
+        // 还高于目标时保持追赶，不会在目标与容差之间来回切换
+        while (controller.getLatency() > TARGET) {
+            assertEquals(LiveLatencyController.CATCH_UP_RATE, rate, DELTA);
+            play(TICK);
+        }
+        assertEquals(1f, rate, DELTA);
+    }
+
+    @Test
+    public void ignoresSmallStallWithinTolerance() {
+        play(TICK);
+        assertEquals(1f, stall(TARGET - BASE + 50), DELTA);
+    }
+
+    @Test
+    public void requestsResyncWhenTooFarBehind() {
+        play(TICK);
+        assertEquals(LiveLatencyController.RESYNC, stall(TARGET - BASE + 2500), DELTA);
+    }
+
+    @Test
+    public void requestsResyncAfterLongGap() {
+        play(TICK);
+        now += 6000;
+        time += 6000;
+        assertEquals(LiveLatencyController.RESYNC, controller.update(now, (long) time), DELTA);
+    }
+
+    @Test
+    public void neverEstimatesBelowBaseLatency() {
+        play(TICK);
+        // 播放时间比墙上时钟快（如缓冲区中的数据被快速消耗）
+        now += TICK;
+        time += TICK * 3;
+        controller.update(now, (long) time);
+        assertEquals(BASE, controller.getLatency());
+    }
+
+    @Test
+    public void resetClearsAccumulatedDrift() {
+        play(TICK);
+        stall(800);
+        controller.reset();
+        assertEquals(BASE, controller.getLatency());
+        rate = 1f;
+        assertEquals(1f, play(TICK), DELTA);
+        assertEquals(TARGET, controller.getTarget());
+    }
+
+    @Test
+    public void recoversAfterReconnect() {
+        play(TICK);
+        assertEquals(LiveLatencyController.RESYNC, stall(TARGET - BASE + 2500), DELTA);
+        // 重新连接：回到直播点，播放时间从 0 重新开始
+        controller.reset();
+        time = 0;
+        rate = 1f;
+        for (int i = 0; i < 10; i++) {
+            assertEquals(1f, play(TICK), DELTA);
+        }
+        assertEquals(BASE, controller.getLatency());
+    }
+
+    @Test
+    public void buildsLiveMediaOptions() {
+        assertArrayEquals(new String[]{":network-caching=" + BASE, ":clock-jitter=0", ":clock-synchro=0"},
+                controller.mediaOptions("udp"));
+        assertArrayEquals(new String[]{":network-caching=" + BASE, ":clock-jitter=0", ":clock-synchro=0", ":rtsp-tcp"},
+                controller.mediaOptions("rtsp"));
+        assertEquals(3, controller.mediaOptions(null).length);
+    }
+
+    /**
+     * 按当前速率播放 elapsed 毫秒
+     */
+    private float play(long elapsed) {
+        now += elapsed;
+        time += elapsed * rate;
+        return submit();
+    }
+
+    /**
+     * 播放停住 elapsed 毫秒
+     */
+    private float stall(long elapsed) {
+        now += elapsed;
+        return submit();
+    }
+
+    private float submit() {
+        float result = controller.update(now, (long) time);
+        if (result != LiveLatencyController.RESYNC) {
+            rate = result;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,166 @@
+package tech.yaog.widgets;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 测试用的本地 HTTP 服务，提供一段数据（可替换，ETag 随之变化），支持 Range，可以在发送若干字节后断开连接.
+ */
+class LoopbackServer {
+
+    private volatile byte[] data;
+    private volatile int version = 1;
+    private final ServerSocket serverSocket;
+    private final List<String> ranges = Collections.synchronizedList(new ArrayList<String>());
+    private volatile long dropAfter = -1;
+
+    LoopbackServer(byte[] data) throws IOException {
+        this.data = data;
+        serverSocket = new ServerSocket(0, 16, InetAddress.getByName("127.0.0.1"));
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "loopback-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    String getUrl() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/media.ts";
+    }
+
+    /**
+     * 替换提供的数据，模拟远端文件被更新
+     */
+    synchronized void setData(byte[] data) {
+        this.data = data;
+        version++;
+    }
+
+    /**
+     * 下一个请求发送 count 字节的内容后断开
+     */
+    void dropNextAfter(long count) {
+        dropAfter = count;
+    }
+
+    /**
+     * 收到的每个请求的 Range 头，没有时为空串
+     */
+    List<String> getRanges() {
+        synchronized (ranges) {
+            return new ArrayList<>(ranges);
+        }
+    }
+
+    void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                break;
+            }
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        serve(socket);
+                    } catch (IOException ignored) {
+                    } finally {
+                        try {
+                            socket.close();
+                        } catch (IOException ignored) {
+                        }
+                    }
+                }
+            }, "loopback-connection");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void serve(Socket socket) throws IOException {
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        String range = "";
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            if (line.toLowerCase().startsWith("range:")) {
+                range = line.substring(6).trim();
+            }
+        }
+        ranges.add(range);
+        byte[] data;
+        int version;
+        synchronized (this) {
+            data = this.data;
+            version = this.version;
+        }
+        long start = 0;
+        long end = data.length - 1;
+        boolean partial = false;
+        if (range.startsWith("bytes=")) {
+            String[] parts = range.substring(6).split("-", -1);
+            if (parts[0].isEmpty()) {
+                start = Math.max(0, data.length - Long.parseLong(parts[1]));
+            } else {
+                start = Long.parseLong(parts[0]);
+                if (!parts[1].isEmpty()) {
+                    end = Math.min(end, Long.parseLong(parts[1]));
+                }
+            }
+            partial = true;
+        }
+        OutputStream out = socket.getOutputStream();
+        StringBuilder header = new StringBuilder();
+        if (partial) {
+            header.append("HTTP/1.1 206 Partial Content\r\n");
+            header.append("Content-Range: bytes ").append(start).append('-').append(end).append('/').append(data.length).append("\r\n");
+        } else {
+            header.append("HTTP/1.1 200 OK\r\n");
+        }
+        header.append("Content-Type: video/mp2t\r\n");
+        header.append("ETag: \"v").append(version).append("\"\r\n");
+        header.append("Content-Length: ").append(end - start + 1).append("\r\n");
+        header.append("Connection: close\r\n\r\n");
+        out.write(header.toString().getBytes("ISO-8859-1"));
+        long count = end - start + 1;
+        long drop = dropAfter;
+        dropAfter = -1;
+        if (drop >= 0) {
+            count = Math.min(count, drop);
+        }
+        out.write(data, (int) start, (int) count);
+        out.flush();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() > 0 ? line.toString() : null;
+    }
+}
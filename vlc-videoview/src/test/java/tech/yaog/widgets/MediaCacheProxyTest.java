@@ -0,0 +1,161 @@
+package tech.yaog.widgets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MediaCacheProxyTest {
+
+    private static final int LENGTH = 300 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private byte[] data;
+    private LoopbackServer server;
+    private MediaCacheProxy proxy;
+
+    @Before
+    public void setUp() throws Exception {
+        data = new byte[LENGTH];
+        new Random(1).nextBytes(data);
+        server = new LoopbackServer(data);
+        proxy = new MediaCacheProxy(folder.getRoot());
+        proxy.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        proxy.stop();
+        server.close();
+    }
+
+    @Test
+    public void servesSecondRequestFromCache() throws Exception {
+        assertArrayEquals(data, get(null, 200));
+        int requests = server.getRanges().size();
+        assertArrayEquals(data, get(null, 200));
+        assertEquals(requests, server.getRanges().size());
+        assertEquals(LENGTH, proxy.getCachedBytes());
+    }
+
+    @Test
+    public void servesByteRange() throws Exception {
+        assertArrayEquals(Arrays.copyOfRange(data, 1000, 2000), get("bytes=1000-1999", 206));
+        assertArrayEquals(Arrays.copyOfRange(data, LENGTH - 100, LENGTH), get("bytes=" + (LENGTH - 100) + "-", 206));
+    }
+
+    @Test
+    public void servesSuffixRange() throws Exception {
+        assertArrayEquals(Arrays.copyOfRange(data, LENGTH - 500, LENGTH), get("bytes=-500", 206));
+        // 已知长度后直接换算
+        assertArrayEquals(Arrays.copyOfRange(data, LENGTH - 10, LENGTH), get("bytes=-10", 206));
+        assertArrayEquals(data, get("bytes=-" + (LENGTH * 2), 206));
+    }
+
+    @Test
+    public void rejectsRangeBeyondEnd() throws Exception {
+        get(null, 200);
+        HttpURLConnection connection = open("bytes=" + LENGTH + "-");
+        assertEquals(416, connection.getResponseCode());
+        connection.disconnect();
+    }
+
+    @Test
+    public void resumesAfterUpstreamDrop() throws Exception {
+        server.dropNextAfter(100 * 1024);
+        try {
+            get(null, 200);
+        } catch (IOException ignored) {
+            // 上游断开后代理关闭连接
+        }
+        long cached = proxy.getCachedBytes();
+        assertTrue(cached > 0 && cached < LENGTH);
+
+        assertArrayEquals(data, get(null, 200));
+        List<String> ranges = server.getRanges();
+        String last = ranges.get(ranges.size() - 1);
+        assertEquals("bytes=" + cached + "-" + (LENGTH - 1), last);
+        assertEquals(LENGTH, proxy.getCachedBytes());
+    }
+
+    @Test
+    public void refetchesReplacedContentAfterRestart() throws Exception {
+        assertArrayEquals(data, get(null, 200));
+        proxy.stop();
+        byte[] replaced = new byte[LENGTH / 2];
+        new Random(2).nextBytes(replaced);
+        server.setData(replaced);
+
+        proxy = new MediaCacheProxy(folder.getRoot());
+        proxy.start();
+        assertArrayEquals(replaced, get(null, 200));
+        assertEquals(replaced.length, proxy.getCachedBytes());
+    }
+
+    @Test
+    public void dropsStaleBytesWhenContentIsReplaced() throws Exception {
+        assertArrayEquals(Arrays.copyOfRange(data, 0, 1000), get("bytes=0-999", 206));
+        // 长度相同、内容不同，只能靠 ETag 发现
+        byte[] replaced = new byte[LENGTH];
+        new Random(2).nextBytes(replaced);
+        server.setData(replaced);
+        try {
+            get(null, 200);
+        } catch (IOException ignored) {
+            // 取缺失部分时发现内容已更新，代理断开连接
+        }
+        assertArrayEquals(replaced, get(null, 200));
+    }
+
+    @Test
+    public void keepsProxyUrlForOtherSchemes() {
+        assertEquals("rtsp://example.com/live", proxy.getProxyUrl("rtsp://example.com/live"));
+        assertTrue(proxy.getProxyUrl(server.getUrl()).startsWith("http://127.0.0.1:" + proxy.getPort() + "/"));
+    }
+
+    private HttpURLConnection open(String range) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(proxy.getProxyUrl(server.getUrl())).openConnection();
+        if (range != null) {
+            connection.setRequestProperty("Range", range);
+        }
+        return connection;
+    }
+
+    private byte[] get(String range, int expectedCode) throws IOException {
+        HttpURLConnection connection = open(range);
+        try {
+            assertEquals(expectedCode, connection.getResponseCode());
+            InputStream in = connection.getInputStream();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, n);
+            }
+            byte[] body = out.toByteArray();
+            long expected = connection.getContentLengthLong();
+            if (expected >= 0 && body.length != expected) {
+                throw new IOException("truncated");
+            }
+            return body;
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
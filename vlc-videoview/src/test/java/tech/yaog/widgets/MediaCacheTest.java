@@ -0,0 +1,141 @@
+package tech.yaog.widgets;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MediaCacheTest {
+
+    private static final String URL = "http://example.com/a.ts";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsBackWrittenRanges() throws Exception {
+        MediaCache cache = new MediaCache(folder.getRoot(), 1024);
+        MediaCache.Entry entry = cache.open(URL);
+        entry.setInfo(100, "video/mp2t", null);
+        entry.write(10, bytes(10, 20), 20);
+        assertEquals(30, entry.cachedEnd(10));
+        assertEquals(10, entry.nextStart(0));
+
+        byte[] buffer = new byte[20];
+        assertEquals(20, entry.read(10, buffer, 20));
+        for (int i = 0; i < 20; i++) {
+            assertEquals((byte) (10 + i), buffer[i]);
+        }
+        cache.close(entry);
+        assertEquals(20, cache.size());
+    }
+
+    @Test
+    public void restoresIndexAfterReopen() throws Exception {
+        File dir = folder.getRoot();
+        MediaCache cache = new MediaCache(dir, 1024);
+        MediaCache.Entry entry = cache.open(URL);
+        entry.setInfo(100, "video/mp2t", null);
+        entry.write(0, bytes(0, 50), 50);
+        cache.close(entry);
+
+        MediaCache reopened = new MediaCache(dir, 1024);
+        MediaCache.Entry restored = reopened.open(URL);
+        assertEquals(100, restored.getLength());
+        assertEquals("video/mp2t", restored.getContentType());
+        assertEquals(50, restored.cachedEnd(0));
+        reopened.close(restored);
+    }
+
+    @Test
+    public void dropsRangesWhenLengthChanges() throws Exception {
+        MediaCache cache = new MediaCache(folder.getRoot(), 1024);
+        MediaCache.Entry entry = cache.open(URL);
+        entry.setInfo(100, null, null);
+        entry.write(0, bytes(0, 50), 50);
+        entry.setInfo(200, null, null);
+        assertEquals(0, entry.cachedEnd(0));
+        assertNull(entry.getContentType());
+        cache.close(entry);
+    }
+
+    @Test
+    public void dropsRangesWhenValidatorChanges() throws Exception {
+        MediaCache cache = new MediaCache(folder.getRoot(), 1024);
+        MediaCache.Entry entry = cache.open(URL);
+        assertFalse(entry.setInfo(100, null, "\"v1\""));
+        entry.write(0, bytes(0, 50), 50);
+        assertFalse(entry.setInfo(100, null, "\"v1\""));
+        assertEquals(50, entry.cachedEnd(0));
+        assertTrue(entry.setInfo(100, null, "\"v2\""));
+        assertEquals(0, entry.cachedEnd(0));
+        cache.close(entry);
+    }
+
+    @Test
+    public void revalidatesRestoredEntries() throws Exception {
+        File dir = folder.getRoot();
+        MediaCache cache = new MediaCache(dir, 1024);
+        MediaCache.Entry entry = cache.open(URL);
+        entry.setInfo(100, null, "\"v1\"");
+        assertTrue(entry.isValidated());
+        entry.write(0, bytes(0, 50), 50);
+        cache.close(entry);
+
+        MediaCache reopened = new MediaCache(dir, 1024);
+        MediaCache.Entry restored = reopened.open(URL);
+        assertFalse(restored.isValidated());
+        assertTrue(restored.setInfo(100, null, "\"v2\""));
+        assertEquals(0, restored.cachedEnd(0));
+        reopened.close(restored);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedEntries() throws Exception {
+        MediaCache cache = new MediaCache(folder.getRoot(), 150);
+        fill(cache, "http://example.com/1.ts", 100);
+        fill(cache, "http://example.com/2.ts", 100);
+        assertEquals(100, cache.size());
+
+        MediaCache.Entry second = cache.open("http://example.com/2.ts");
+        assertEquals(100, second.cachedEnd(0));
+        cache.close(second);
+        MediaCache.Entry first = cache.open("http://example.com/1.ts");
+        assertEquals(0, first.cachedEnd(0));
+        cache.close(first);
+    }
+
+    @Test
+    public void keepsEntriesInUse() throws Exception {
+        MediaCache cache = new MediaCache(folder.getRoot(), 50);
+        MediaCache.Entry entry = cache.open(URL);
+        entry.setInfo(100, null, null);
+        entry.write(0, bytes(0, 100), 100);
+        cache.setMaxBytes(10);
+        cache.clear();
+        assertEquals(100, entry.cachedEnd(0));
+        cache.close(entry);
+        assertEquals(0, cache.size());
+    }
+
+    private static void fill(MediaCache cache, String url, int length) throws Exception {
+        MediaCache.Entry entry = cache.open(url);
+        entry.setInfo(length, null, null);
+        entry.write(0, bytes(0, length), length);
+        cache.close(entry);
+    }
+
+    private static byte[] bytes(int first, int count) {
+        byte[] data = new byte[count];
+        for (int i = 0; i < count; i++) {
+            data[i] = (byte) (first + i);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,258 @@
+package tech.yaog.widgets;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class TimeshiftRingTest {
+
+    private static final int P = TimeshiftRing.TS_PACKET_SIZE;
+    private static final int PMT_PID = 0x1000;
+    private static final int VIDEO_PID = 0x100;
+    private static final int AUDIO_PID = 0x101;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TimeshiftRing ring;
+
+    @After
+    public void tearDown() {
+        if (ring != null) {
+            ring.close();
+        }
+    }
+
+    @Test
+    public void roundsCapacityToPacketSize() throws Exception {
+        ring = open(P * 10 + 100);
+        assertEquals(P * 10, ring.getCapacity());
+    }
+
+    @Test
+    public void readsBackAcrossWraparound() throws Exception {
+        ring = open(P * 10);
+        for (int i = 0; i < 25; i++) {
+            ring.write(packet(VIDEO_PID, false, i), 0, P, i * 40);
+        }
+        assertEquals(P * 25, ring.getWritePosition());
+        assertEquals(P * 15, ring.getWindowStart());
+        assertEquals(24 * 40, ring.getLiveTime());
+
+        // 跨过文件末尾的读取
+        byte[] buffer = new byte[P * 3];
+        assertEquals(P * 3, ring.read(P * 19, buffer, buffer.length));
+        assertArrayEquals(concat(packet(VIDEO_PID, false, 19), packet(VIDEO_PID, false, 20), packet(VIDEO_PID, false, 21)), buffer);
+    }
+
+    @Test
+    public void reportsOverwrittenAndPendingReads() throws Exception {
+        ring = open(P * 10);
+        for (int i = 0; i < 12; i++) {
+            ring.write(packet(VIDEO_PID, false, i), 0, P, i * 40);
+        }
+        byte[] buffer = new byte[P];
+        assertEquals(-1, ring.read(P, buffer, P));
+        assertEquals(P, ring.read(P * 2, buffer, P));
+        assertEquals(0, ring.read(P * 12, buffer, P));
+        // 已有数据时不等待
+        long before = System.nanoTime();
+        ring.awaitData(0, 5000);
+        assertEquals(0, (System.nanoTime() - before) / 1000000000);
+    }
+
+    @Test
+    public void splitsWritesLargerThanCapacity() throws Exception {
+        ring = open(P * 4);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int i = 0; i < 10; i++) {
+            byte[] packet = packet(VIDEO_PID, false, i);
+            stream.write(packet, 0, P);
+        }
+        byte[] data = stream.toByteArray();
+        ring.write(data, 0, data.length, 100);
+        assertEquals(P * 10, ring.getWritePosition());
+        byte[] buffer = new byte[P * 4];
+        assertEquals(P * 4, ring.read(P * 6, buffer, buffer.length));
+        assertArrayEquals(concat(packet(VIDEO_PID, false, 6), packet(VIDEO_PID, false, 7),
+                packet(VIDEO_PID, false, 8), packet(VIDEO_PID, false, 9)), buffer);
+    }
+
+    @Test
+    public void indexesVideoRandomAccessPointsOnly() throws Exception {
+        ring = open(P * 100);
+        write(pat(), 0);
+        write(pmt(0x1b), 0);
+        write(packet(AUDIO_PID, true, 0), 300);
+        long videoOffset = ring.getWritePosition();
+        write(packet(VIDEO_PID, true, 0), 500);
+        write(packet(AUDIO_PID, true, 1), 800);
+        write(packet(VIDEO_PID, false, 1), 900);
+        long secondOffset = ring.getWritePosition();
+        write(packet(VIDEO_PID, true, 2), 1200);
+
+        // 第一个包之前还不知道视频 PID，按包边界记录
+        TimeshiftRing.Keyframe first = ring.findKeyframe(0);
+        assertEquals(0, first.offset);
+        // 音频的随机访问点不计入
+        assertEquals(0, ring.findKeyframe(400).offset);
+        TimeshiftRing.Keyframe video = ring.findKeyframe(1000);
+        assertEquals(videoOffset, video.offset);
+        assertEquals(500, video.time);
+        TimeshiftRing.Keyframe live = ring.findKeyframe(-1);
+        assertEquals(secondOffset, live.offset);
+        assertEquals(1200, live.time);
+    }
+
+    @Test
+    public void throttlesDenseRandomAccessPoints() throws Exception {
+        ring = open(P * 100);
+        write(pat(), 0);
+        write(pmt(0x24), 0);
+        for (int i = 0; i < 10; i++) {
+            write(packet(VIDEO_PID, true, i), 1000 + i * 50);
+        }
+        // 间隔 50ms 的随机访问点按 200ms 记录
+        assertEquals(1000, ring.findKeyframe(1100).time);
+        assertEquals(1200, ring.findKeyframe(1399).time);
+        assertEquals(1400, ring.findKeyframe(-1).time);
+    }
+
+    @Test
+    public void fallsBackToPcrPidWithoutKnownVideoType() throws Exception {
+        ring = open(P * 100);
+        write(pat(), 0);
+        // 未知的流类型，PCR 在视频 PID 上
+        write(pmt(0x99), 0);
+        long offset = ring.getWritePosition();
+        write(packet(VIDEO_PID, true, 0), 500);
+        assertEquals(offset, ring.findKeyframe(-1).offset);
+    }
+
+    @Test
+    public void indexesPacketBoundariesWithoutRandomAccess() throws Exception {
+        ring = open(P * 100);
+        for (int i = 0; i < 20; i++) {
+            write(packet(VIDEO_PID, false, i), i * 250);
+        }
+        assertEquals(0, ring.findKeyframe(999).time);
+        assertEquals(1000, ring.findKeyframe(1999).time);
+        assertEquals(P * 16, ring.findKeyframe(-1).offset);
+    }
+
+    @Test
+    public void skipsKeyframesOutsideWindow() throws Exception {
+        ring = open(P * 10);
+        write(pat(), 0);
+        write(pmt(0x1b), 0);
+        for (int i = 0; i < 30; i++) {
+            write(packet(VIDEO_PID, i % 5 == 0, i), 1000 + i * 100);
+        }
+        long windowStart = ring.getWindowStart();
+        TimeshiftRing.Keyframe oldest = ring.findKeyframe(0);
+        assertNotNull(oldest);
+        assertEquals(P * 22, oldest.offset);
+        assertEquals(true, oldest.offset >= windowStart);
+        assertEquals(P * 27, ring.findKeyframe(-1).offset);
+    }
+
+    @Test
+    public void returnsNullWithoutKeyframes() throws Exception {
+        ring = open(P * 10);
+        assertNull(ring.findKeyframe(-1));
+    }
+
+    @Test
+    public void ignoresWritesAfterClose() throws Exception {
+        ring = open(P * 10);
+        write(packet(VIDEO_PID, false, 0), 0);
+        ring.close();
+        write(packet(VIDEO_PID, false, 1), 40);
+        assertEquals(P, ring.getWritePosition());
+    }
+
+    private TimeshiftRing open(long capacity) throws Exception {
+        return new TimeshiftRing(new File(folder.getRoot(), "ring.ts"), capacity);
+    }
+
+    private void write(byte[] packet, long time) {
+        ring.write(packet, 0, packet.length, time);
+    }
+
+    /**
+     * 带负载的 TS 包，randomAccess 时带适配域并置 random_access_indicator
+     */
+    private static byte[] packet(int pid, boolean randomAccess, int sequence) {
+        byte[] packet = header(pid, false, randomAccess ? 3 : 1);
+        int payload = 4;
+        if (randomAccess) {
+            packet[4] = 1;
+            packet[5] = 0x40;
+            payload = 6;
+        }
+        for (int i = payload; i < P; i++) {
+            packet[i] = (byte) (sequence + i);
+        }
+        return packet;
+    }
+
+    private static byte[] pat() {
+        byte[] packet = header(0, true, 1);
+        byte[] section = {
+                0x00, (byte) 0xb0, 13, 0x00, 0x01, (byte) 0xc1, 0x00, 0x00,
+                0x00, 0x01, (byte) (0xe0 | PMT_PID >> 8), (byte) PMT_PID,
+                0, 0, 0, 0
+        };
+        return withSection(packet, section);
+    }
+
+    /**
+     * 节目包含一路音频和一路指定类型的流（PID 为 {@link #VIDEO_PID}，同时承载 PCR）
+     */
+    private static byte[] pmt(int streamType) {
+        byte[] packet = header(PMT_PID, true, 1);
+        byte[] section = {
+                0x02, (byte) 0xb0, 23, 0x00, 0x01, (byte) 0xc1, 0x00, 0x00,
+                (byte) (0xe0 | VIDEO_PID >> 8), (byte) VIDEO_PID, (byte) 0xf0, 0x00,
+                0x0f, (byte) (0xe0 | AUDIO_PID >> 8), (byte) AUDIO_PID, (byte) 0xf0, 0x00,
+                (byte) streamType, (byte) (0xe0 | VIDEO_PID >> 8), (byte) VIDEO_PID, (byte) 0xf0, 0x00,
+                0, 0, 0, 0
+        };
+        return withSection(packet, section);
+    }
+
+    private static byte[] header(int pid, boolean unitStart, int adaptation) {
+        byte[] packet = new byte[P];
+        packet[0] = 0x47;
+        packet[1] = (byte) ((unitStart ? 0x40 : 0) | (pid >> 8));
+        packet[2] = (byte) pid;
+        packet[3] = (byte) (adaptation << 4);
+        return packet;
+    }
+
+    private static byte[] withSection(byte[] packet, byte[] section) {
+        packet[4] = 0;
+        System.arraycopy(section, 0, packet, 5, section.length);
+        for (int i = 5 + section.length; i < P; i++) {
+            packet[i] = (byte) 0xff;
+        }
+        return packet;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+}